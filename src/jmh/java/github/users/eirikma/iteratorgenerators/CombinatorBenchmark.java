@@ -0,0 +1,149 @@
+package github.users.eirikma.iteratorgenerators;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * flatten, zip, batchesOf, markable, pushbackable and the fused IteratorExt stages against the nearest java.util.stream equivalent,
+ * all over the same list of N values.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(CombinatorBenchmark.N)
+public class CombinatorBenchmark {
+
+    static final int N = 100_000;
+    static final int CHUNK = 100;
+
+    private List<Integer> values;
+    private List<List<Integer>> chunks;
+
+    @Setup
+    public void setUp() {
+        values = IntStream.range(0, N).boxed().collect(Collectors.toList());
+        chunks = new ArrayList<>();
+        for (int i = 0; i < N; i += CHUNK) {
+            chunks.add(values.subList(i, i + CHUNK));
+        }
+    }
+
+    @Benchmark
+    public void flatten(Blackhole bh) {
+        Iterator<Iterator<Integer>> iterators = chunks.stream().map(List::iterator).iterator();
+        GeneratorBenchmark.drain(Iterators.flatten(iterators), bh);
+    }
+
+    @Benchmark
+    public void flattenStream(Blackhole bh) {
+        chunks.stream().flatMap(List::stream).forEach(bh::consume);
+    }
+
+    @Benchmark
+    public void zip(Blackhole bh) {
+        GeneratorBenchmark.drain(Iterators.zip(values.iterator(), values.iterator()), bh);
+    }
+
+    @Benchmark
+    public void zipStream(Blackhole bh) {
+        IntStream.range(0, N).mapToObj(i -> new Tuple2<>(values.get(i), values.get(i))).forEach(bh::consume);
+    }
+
+    @Benchmark
+    public void batchesOf(Blackhole bh) {
+        GeneratorBenchmark.drain(Iterators.batchesOf(CHUNK, values.iterator()), bh);
+    }
+
+    @Benchmark
+    public void reusedBatchesOf(Blackhole bh) {
+        GeneratorBenchmark.drain(Iterators.reusedBatchesOf(CHUNK, values.iterator()), bh);
+    }
+
+    @Benchmark
+    public void batchesStream(Blackhole bh) {
+        IntStream.range(0, N / CHUNK)
+                .mapToObj(i -> values.subList(i * CHUNK, (i + 1) * CHUNK).stream().collect(Collectors.toList()))
+                .forEach(bh::consume);
+    }
+
+    /**
+     * read ahead 10 values from each mark before going back to it.
+     */
+    @Benchmark
+    public void markable(Blackhole bh) {
+        MarkableIterator<Integer> iterator = Iterators.markable(values.iterator());
+        while (iterator.hasNext()) {
+            iterator.mark(10);
+            for (int i = 0; i < 10 && iterator.hasNext(); i++) {
+                bh.consume(iterator.next());
+            }
+            iterator.reset();
+            bh.consume(iterator.next());
+        }
+    }
+
+    /**
+     * push back every other value, so each is read twice.
+     */
+    @Benchmark
+    public void pushbackable(Blackhole bh) {
+        PushBackIterator<Integer> iterator = Iterators.pushbackable(values.iterator());
+        boolean pushBack = true;
+        while (iterator.hasNext()) {
+            Integer value = iterator.next();
+            bh.consume(value);
+            if (pushBack) {
+                iterator.pushback(value);
+            }
+            pushBack = !pushBack;
+        }
+    }
+
+    @Benchmark
+    public void fusedChain(Blackhole bh) {
+        GeneratorBenchmark.drain(Iterators.iteratorExt(values.iterator())
+                .filter(value -> (value & 1) == 0)
+                .map(value -> value * 3)
+                .flatMap(value -> Iterators.values(value, value + 1))
+                .takeWhile(value -> value >= 0)
+                .peek(bh::consume)
+                .limit(N), bh);
+    }
+
+    @Benchmark
+    public void chainStream(Blackhole bh) {
+        values.stream()
+                .filter(value -> (value & 1) == 0)
+                .map(value -> value * 3)
+                .flatMap(value -> Stream.of(value, value + 1))
+                .peek(bh::consume)
+                .limit(N)
+                .forEach(bh::consume);
+    }
+
+    @Benchmark
+    public void plainStream(Blackhole bh) {
+        values.stream().forEach(bh::consume);
+    }
+}
@@ -0,0 +1,111 @@
+package github.users.eirikma.iteratorgenerators;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a generated csv file of about 'megabytes' MB with each of the CsvReader iterators.
+ * Each benchmark reads the whole file once per invocation and picks out one field of each row.
+ * The 'megabytesRead' counter is reported per second, which is the throughput in MB/s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CsvReaderBenchmark {
+
+    @Param({"32"})
+    public int megabytes;
+
+    private Path file;
+    private double fileMegabytes;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public double megabytesRead;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("benchmark", ".csv");
+        Random random = new Random(42);
+        long target = megabytes * (1L << 20);
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("id;name;amount;comment\n");
+            for (long id = 0; Files.size(file) < target; id++) {
+                writer.write(id + ";name " + random.nextInt(1000) + ";" + random.nextInt(1_000_000) + ";");
+                writer.write(id % 10 == 0 ? "\"quoted; with a separator\"\n" : "plain comment\n");
+                if (id % 10_000 == 0) {
+                    writer.flush();
+                }
+            }
+        }
+        fileMegabytes = Files.size(file) / (double) (1 << 20);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void iterate(Counters counters, Blackhole bh) {
+        IteratorExt<Map<String, String>> rows = CsvReader.iterate(file);
+        while (rows.hasNext()) {
+            bh.consume(rows.next().get("amount"));
+        }
+        counters.megabytesRead += fileMegabytes;
+    }
+
+    @Benchmark
+    public void iterateRows(Counters counters, Blackhole bh) {
+        IteratorExt<CsvRow> rows = CsvReader.iterateRows(file);
+        while (rows.hasNext()) {
+            bh.consume(rows.next().get(2));
+        }
+        counters.megabytesRead += fileMegabytes;
+    }
+
+    @Benchmark
+    public void iterateMapped(Counters counters, Blackhole bh) {
+        IteratorExt<MappedCsvRow> rows = CsvReader.iterateMapped(file);
+        while (rows.hasNext()) {
+            bh.consume(rows.next().getLong(2));
+        }
+        counters.megabytesRead += fileMegabytes;
+    }
+
+    @Benchmark
+    public void iterateParallel(Counters counters, Blackhole bh) {
+        IteratorExt<CsvRow> rows = CsvReader.iterateParallel(file, Runtime.getRuntime().availableProcessors(), false);
+        while (rows.hasNext()) {
+            bh.consume(rows.next().get(2));
+        }
+        counters.megabytesRead += fileMegabytes;
+    }
+}
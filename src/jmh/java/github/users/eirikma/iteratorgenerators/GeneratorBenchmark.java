@@ -0,0 +1,85 @@
+package github.users.eirikma.iteratorgenerators;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+/**
+ * Throughput of generator() and generatorWithState(), yielding one or 'perCall' values per call,
+ * against a plain iterator and a java.util.stream doing the same.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(GeneratorBenchmark.N)
+public class GeneratorBenchmark {
+
+    static final int N = 100_000;
+
+    @Param({"1", "64"})
+    public int perCall;
+
+    @Benchmark
+    public void generator(Blackhole bh) {
+        long[] next = {0L};
+        drain(Iterators.<Long>generator(yield -> {
+            for (int i = 0; i < perCall && next[0] < N; i++) {
+                yield.yield(next[0]++);
+            }
+        }), bh);
+    }
+
+    @Benchmark
+    public void generatorWithState(Blackhole bh) {
+        drain(Iterators.<Long, long[]>generatorWithState(new long[1], yield -> {
+            long[] state = yield.getState();
+            for (int i = 0; i < perCall && state[0] < N; i++) {
+                yield.yield(state[0]++);
+            }
+        }), bh);
+    }
+
+    @Benchmark
+    public void plainIterator(Blackhole bh) {
+        drain(new Iterator<Long>() {
+            private long next = 0L;
+
+            @Override
+            public boolean hasNext() {
+                return next < N;
+            }
+
+            @Override
+            public Long next() {
+                return next++;
+            }
+        }, bh);
+    }
+
+    @Benchmark
+    public void stream(Blackhole bh) {
+        LongStream.range(0, N).boxed().forEach(bh::consume);
+    }
+
+    static void drain(Iterator<?> iterator, Blackhole bh) {
+        while (iterator.hasNext()) {
+            bh.consume(iterator.next());
+        }
+    }
+}
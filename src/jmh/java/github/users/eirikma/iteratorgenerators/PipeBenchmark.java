@@ -0,0 +1,105 @@
+package github.users.eirikma.iteratorgenerators;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Average time per value handed from a producer to the consumer: through a GeneratorObjectPipe (same thread),
+ * a MultiThreadedObjectPipe and the SpscObjectPipe used by Iterators.background() (producer on another thread).
+ * The threaded pipes are tried with a small and a large buffer and both wait strategies, see Threaded;
+ * the GeneratorObjectPipe has neither, so it runs once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(PipeBenchmark.N)
+public class PipeBenchmark {
+
+    static final int N = 100_000;
+
+    /**
+     * the settings of the threaded pipes, and the threads their producers run on.
+     */
+    @State(Scope.Benchmark)
+    public static class Threaded {
+        @Param({"16", "1024"})
+        public int bufferCapacity;
+
+        @Param({"BLOCKING", "SPIN_THEN_PARK"})
+        public WaitStrategy waitStrategy;
+
+        ExecutorService producers;
+
+        @Setup
+        public void setUp() {
+            producers = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "benchmark-producer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        @TearDown
+        public void tearDown() {
+            producers.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public void generatorObjectPipe(Blackhole bh) {
+        long[] next = {0L};
+        GeneratorObjectPipe<Long> pipe = new GeneratorObjectPipe<>(yield -> {
+            if (next[0] < N) {
+                yield.yield(next[0]++);
+            }
+        });
+        GeneratorBenchmark.drain(pipe.getIterator(), bh);
+    }
+
+    @Benchmark
+    public void multiThreadedObjectPipe(Threaded threaded, Blackhole bh) {
+        MultiThreadedObjectPipe<Long> pipe = new MultiThreadedObjectPipe<>(threaded.bufferCapacity, threaded.waitStrategy,
+                0L, TimeUnit.MILLISECONDS);
+        Yield<Long> yield = pipe.getYieldTarget();
+        threaded.producers.execute(() -> {
+            try {
+                for (long i = 0; i < N; i++) {
+                    yield.yield(i);
+                }
+                yield.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        GeneratorBenchmark.drain(pipe.getIterator(), bh);
+    }
+
+    @Benchmark
+    public void background(Threaded threaded, Blackhole bh) {
+        long[] next = {0L};
+        GeneratorBenchmark.drain(Iterators.<Long>background(yield -> {
+            if (next[0] < N) {
+                yield.yield(next[0]++);
+            }
+        }, threaded.producers, threaded.bufferCapacity, threaded.waitStrategy, 0L, TimeUnit.MILLISECONDS), bh);
+    }
+}
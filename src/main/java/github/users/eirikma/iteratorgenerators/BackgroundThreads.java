@@ -0,0 +1,60 @@
+package github.users.eirikma.iteratorgenerators;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Default Executor for running background generators:
+ * one virtual thread per generator when running on a JVM with virtual threads (java 21+),
+ * otherwise a cached pool of named daemon threads, so short-lived pipelines don't pay for thread creation each time.
+ */
+final class BackgroundThreads {
+
+    static final String THREAD_NAME_PREFIX = "iterators-background-";
+
+    private BackgroundThreads() {
+    }
+
+    private static final class Holder {
+        static final Executor DEFAULT = createDefaultExecutor();
+    }
+
+    static Executor defaultExecutor() {
+        return Holder.DEFAULT;
+    }
+
+    private static Executor createDefaultExecutor() {
+        ThreadFactory virtualThreads = virtualThreadFactory();
+        if (virtualThreads != null) {
+            return command -> virtualThreads.newThread(command).start();
+        }
+        AtomicLong threadCount = new AtomicLong();
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), runnable -> {
+            Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Thread.ofVirtual().name(prefix, 0).factory(), looked up reflectively since this library is built for java 8.
+     *
+     * @return null if the running JVM has no virtual threads
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, THREAD_NAME_PREFIX, 0L);
+            Method factory = builderClass.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package github.users.eirikma.iteratorgenerators;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A batch of values from Iterators.reusedBatchesOf() or Iterators.pooledBatchesOf(): a read-only list view
+ * of an array that is filled again for a later batch, instead of allocating new lists for each batch.
+ *
+ * A reused batch is refilled when the consumer moves on to the next one (calls hasNext() or next() again).
+ * A pooled batch is refilled after release() has handed it back, which may be done from any thread.
+ */
+public final class Batch<T> extends AbstractList<T> implements RandomAccess {
+
+    private final Object[] values;
+    private final BlockingQueue<Batch<T>> pool;
+    private int size = 0;
+    private volatile boolean released = false;
+
+    /**
+     * @param values the array to fill, of the type the source's nextN() takes (see Iterators.nextNBuffer())
+     */
+    Batch(Object[] values, BlockingQueue<Batch<T>> pool) {
+        this.values = values;
+        this.pool = pool;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return (T) values[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * hand a pooled batch back to be filled again: don't use it after this. Does nothing for reused batches.
+     */
+    public void release() {
+        if (pool != null && !released) {
+            released = true;
+            Arrays.fill(values, 0, size, null);
+            size = 0;
+            pool.offer(this);
+        }
+    }
+
+    /**
+     * replace the contents by up to 'capacity' values from 'source'.
+     *
+     * @return the new size
+     */
+    @SuppressWarnings("unchecked")
+    int fill(IteratorExt<T> source) {
+        int previousSize = size;
+        int n = 0;
+        int gotten;
+        while (n < values.length && (gotten = Iterators.nextN(source, (T[]) values, n, values.length - n)) > 0) {
+            n += gotten;
+        }
+        if (n < previousSize) {
+            Arrays.fill(values, n, previousSize, null);
+        }
+        size = n;
+        released = false;
+        modCount++;
+        return n;
+    }
+}
@@ -0,0 +1,23 @@
+package github.users.eirikma.iteratorgenerators;
+
+/**
+ * Like Processor, but getting the input an array at a time, so the work can be done in plain loops over arrays
+ * instead of a next() call per value. The results are yielded, preferably with yieldN() from an output array.
+ *
+ * Wire it in with Iterators.processBatches(). Iterators.asProcessor() and Iterators.asBatchProcessor()
+ * adapt between the two kinds of processors.
+ */
+public interface BatchProcessor<I, O> {
+
+    /**
+     * process input[offset] to input[offset + count - 1]. The array is reused for the next batch after this returns.
+     * Any number of values may be yielded, also none.
+     */
+    void process(I[] input, int offset, int count, Yield<O> output);
+
+    /**
+     * called once after the last batch, to yield what is left from processors keeping values between batches.
+     */
+    default void finish(Yield<O> output) {
+    }
+}
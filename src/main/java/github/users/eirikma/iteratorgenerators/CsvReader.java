@@ -1,11 +1,14 @@
 package github.users.eirikma.iteratorgenerators;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.regex.Pattern;
-
-import static java.util.Arrays.asList;
+import java.util.concurrent.Executor;
 
 /**
  * Created by emaus on 24.10.2016.
@@ -27,80 +30,253 @@ public class CsvReader {
 
     public static List<String> findFieldNamesFromHeader(InputStream input) {
         try {
-            LineNumberReader lineNumberReader = new LineNumberReader(new InputStreamReader(input, Charset.defaultCharset()));
-            String headerLine = lineNumberReader.readLine();
-            char separator = findMostUsedSymbol(headerLine, new char[]{',', ';', '\t'});
-            return Arrays.asList(headerLine.split(Pattern.quote("" + separator)));
+            CsvTokenizer tokenizer = new CsvTokenizer(new InputStreamReader(input, Charset.defaultCharset()));
+            return readHeader(tokenizer);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
     public static List<Map<String, String>> readCsvInput(InputStream input) {
+        ArrayList<Map<String, String>> result = new ArrayList<>();
+        for (Map<String, String> row : iterate(input)) {
+            result.add(row);
+        }
+        return result;
+    }
+
+    /**
+     * iterate the rows of a csv file, one row at a time: memory use does not depend on the size of the file.
+     * Closing the iterator closes the file, which is also closed when the last row has been read.
+     * The rows are CsvRows, see iterateRows().
+     */
+    public static IteratorExt<Map<String, String>> iterate(Path path) {
+        return asMaps(iterateRows(path));
+    }
+
+    /**
+     * iterate the rows of csv input, one row at a time: memory use does not depend on the size of the input.
+     * Closing the iterator closes the input, which is also closed when the last row has been read.
+     * The rows are CsvRows, see iterateRows().
+     */
+    public static IteratorExt<Map<String, String>> iterate(InputStream input) {
+        return asMaps(iterateRows(input));
+    }
+
+    public static IteratorExt<CsvRow> iterateRows(Path path) {
+        try {
+            return iterateRows(Files.newInputStream(path));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * iterate the rows of csv input, one row at a time, sharing one CsvSchema.
+     * The first line is the header with the field names, the separator is the most used of ',', ';' and tab in the header.
+     * Fields may be quoted with '"', see CsvTokenizer.
+     * Closing the iterator closes the input, which is also closed when the last row has been read.
+     */
+    public static IteratorExt<CsvRow> iterateRows(InputStream input) {
+        CsvTokenizer tokenizer = new CsvTokenizer(new InputStreamReader(input, Charset.defaultCharset()));
         try {
-            LineNumberReader lineNumberReader = new LineNumberReader(new InputStreamReader(input, Charset.defaultCharset()));
-            String headerLine = lineNumberReader.readLine();
-            char separator = findMostUsedSymbol(headerLine, new char[]{',', ';', '\t'});
-            String[] split = headerLine.split(Pattern.quote("" + separator));
-            return readCsvInput(lineNumberReader, separator, asList(split));
+            List<String> fieldNames = readHeader(tokenizer);
+            if (fieldNames == null) {
+                tokenizer.close();
+                return Iterators.values();
+            }
+            return iterateRows(tokenizer, new CsvSchema(fieldNames, tokenizer.getSeparator()));
         } catch (IOException e) {
+            closeQuietly(tokenizer);
             throw new RuntimeException(e);
         }
     }
 
-    private static List<Map<String, String>> readCsvInput(LineNumberReader lineNumberReader, char separator, List<String> fieldNames) {
+    /**
+     * the rows are only read from the iterator, so an iterator of CsvRows is also an iterator of maps.
+     */
+    @SuppressWarnings("unchecked")
+    private static IteratorExt<Map<String, String>> asMaps(IteratorExt<? extends Map<String, String>> rows) {
+        return (IteratorExt<Map<String, String>>) rows;
+    }
+
+    /**
+     * iterate the rows of a csv file mapped into memory, see MappedCsvRow: the same row instance is returned
+     * for every row, and fields are only decoded when they are read.
+     * So read the rows one at a time, in order: don't keep them (copy with toRow() instead), and don't stream them
+     * in parallel. Iterators.parallelStream() does not split this iterator, so it runs sequentially anyway.
+     * Closing the iterator closes the file, which is also closed when the last row has been read.
+     */
+    public static IteratorExt<MappedCsvRow> iterateMapped(Path path) {
+        return iterateMapped(path, Charset.defaultCharset());
+    }
+
+    /**
+     * @param charset must encode the separators, quotes and line breaks as single (ascii) bytes, like UTF-8 and ISO-8859-1 do.
+     */
+    public static IteratorExt<MappedCsvRow> iterateMapped(Path path, Charset charset) {
+        checkAsciiCompatible(charset);
         try {
-            ArrayList<Map<String, String>> result = new ArrayList<>();
-            String splittingToken = Pattern.quote("" + separator);
-            String line;
-            while ((line = lineNumberReader.readLine()) != null) {
-                String[] split = line.split(splittingToken);
-                HashMap<String, String> row = new HashMap<>(fieldNames.size());
-                for (int i = 0; i < fieldNames.size(); i++) {
-                    String fieldName = fieldNames.get(i);
-                    if (split.length > i) {
-                        row.put(fieldName, split[i]);
-                    }
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            MappedCsvTokenizer tokenizer;
+            try {
+                tokenizer = new MappedCsvTokenizer(channel, 0L, Long.MAX_VALUE, MappedCsvTokenizer.DEFAULT_WINDOW_SIZE, true);
+            } catch (IOException | RuntimeException e) {
+                closeQuietly(channel);
+                throw e;
+            }
+            try {
+                MappedCsvRow header = readHeader(tokenizer, charset);
+                if (header == null) {
+                    tokenizer.close();
+                    return Iterators.values();
                 }
-                //  handling rows with extra contents here:
-                 if (split.length > fieldNames.size()) {
-                     row.put("___REMAINING___", join(asList(Arrays.copyOfRange(split, fieldNames.size(), split.length)), "" + separator));
-                 }
-                 result.add(row);
+                return iterateMapped(tokenizer, new MappedCsvRow(schemaOf(header), charset));
+            } catch (IOException | RuntimeException e) {
+                closeQuietly(tokenizer);
+                throw e;
             }
-            return result;
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            throw new IllegalArgumentException(e);
         }
     }
 
-    private static char findMostUsedSymbol(String line, char[] candidates) {
-        int highestCount = 0;
-        char bestSeparator = candidates[0];
-        for (char candidate : candidates) {
-            int occurrences = countMatches(line, ""+candidate);
-            if (occurrences > bestSeparator) {
-                bestSeparator = candidate;
+    /**
+     * parse a large csv file on several threads, see ParallelCsvReader: the file is mapped into memory
+     * and cut into chunks of about 8MB, which are parsed in parallel.
+     *
+     * @param ordered whether to return the rows in file order, or each chunk's rows as soon as it has been parsed.
+     */
+    public static IteratorExt<CsvRow> iterateParallel(Path path, int parallelism, boolean ordered) {
+        return iterateParallel(path, Charset.defaultCharset(), parallelism, ordered, BackgroundThreads.defaultExecutor());
+    }
+
+    /**
+     * @param charset must be ascii compatible, see iterateMapped().
+     */
+    public static IteratorExt<CsvRow> iterateParallel(Path path, Charset charset, int parallelism, boolean ordered,
+                                                                  Executor executor) {
+        return iterateParallel(path, charset, parallelism, ordered, ParallelCsvReader.DEFAULT_CHUNK_SIZE, executor);
+    }
+
+    static IteratorExt<CsvRow> iterateParallel(Path path, Charset charset, int parallelism, boolean ordered,
+                                                           int chunkSize, Executor executor) {
+        checkAsciiCompatible(charset);
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                return ParallelCsvReader.iterate(channel, charset, parallelism, ordered, chunkSize, executor);
+            } catch (IOException | RuntimeException e) {
+                closeQuietly(channel);
+                throw e;
             }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
         }
-        return bestSeparator;
     }
 
+    private static void checkAsciiCompatible(Charset charset) {
+        String special = ",;\t\"\r\n";
+        if (!Arrays.equals(special.getBytes(charset), special.getBytes(StandardCharsets.US_ASCII))) {
+            throw new IllegalArgumentException("not an ascii compatible charset: " + charset);
+        }
+    }
 
-    private static int countMatches(String haystack, String needle) {
-        int pos = 0, lastMatch = 0, count = 0;
-        while ((lastMatch = haystack.indexOf(needle, pos)) >= 0 ) {
-            count += 1;
-            pos = lastMatch;
+    /**
+     * @return the header row, or null if there is no header
+     */
+    static MappedCsvRow readHeader(MappedCsvTokenizer tokenizer, Charset charset) throws IOException {
+        tokenizer.setSeparator(tokenizer.detectSeparator(new byte[]{',', ';', '\t'}));
+        MappedCsvRow header = new MappedCsvRow(new CsvSchema(Collections.<String>emptyList(), (char) tokenizer.getSeparator()), charset);
+        return tokenizer.readRecord(header) ? header : null;
+    }
+
+    /**
+     * the schema of the records after 'header', with its fields as field names.
+     */
+    static CsvSchema schemaOf(MappedCsvRow header) {
+        List<String> fieldNames = new ArrayList<>(header.size());
+        for (int i = 0; i < header.size(); i++) {
+            fieldNames.add(header.get(i));
         }
-        return count;
+        return new CsvSchema(fieldNames, header.getSchema().getSeparator());
+    }
+
+    /**
+     * one row per nextN(), since there is only one row instance.
+     */
+    private static IteratorExt<MappedCsvRow> iterateMapped(MappedCsvTokenizer tokenizer, MappedCsvRow row) {
+        return new SingleStepIterator<MappedCsvRow>() {
+            private boolean ready = false;
+            private boolean closed = false;
+
+            @Override
+            public boolean hasNext() {
+                if (!ready && !closed) {
+                    try {
+                        ready = tokenizer.readRecord(row);
+                        if (!ready) {
+                            close();
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return ready;
+            }
+
+            @Override
+            public MappedCsvRow next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("next");
+                }
+                ready = false;
+                return row;
+            }
+
+            @Override
+            public void close() throws IOException {
+                closed = true;
+                ready = false;
+                tokenizer.close();
+            }
+
+            @Override
+            public boolean isClosed() {
+                return closed;
+            }
+        };
+    }
+
+    /**
+     * @return the field names, or null if there is no header
+     */
+    private static List<String> readHeader(CsvTokenizer tokenizer) throws IOException {
+        tokenizer.setSeparator(tokenizer.detectSeparator(new char[]{',', ';', '\t'}));
+        ArrayList<String> fieldNames = new ArrayList<>();
+        return tokenizer.readRecord(fieldNames) ? fieldNames : null;
     }
-    private static String join(List<String> strings, String separator) {
-        StringBuilder sb = new StringBuilder(strings.size() * 32);
-        for (int i = 0; i < strings.size(); i++) {
-            String s = strings.get(i);
-            sb.append(s).append(separator);
+
+    private static IteratorExt<CsvRow> iterateRows(CsvTokenizer tokenizer, CsvSchema schema) {
+        ArrayList<String> fields = new ArrayList<>(schema.size() + 1);
+        return Iterators.generatorWithState(tokenizer, yield -> {
+            try {
+                if (yield.getState().readRecord(fields)) {
+                    yield.yield(new CsvRow(schema, fields.toArray(new String[fields.size()])));
+                } else {
+                    yield.close();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // already failing
         }
-        return sb.toString();
     }
 }
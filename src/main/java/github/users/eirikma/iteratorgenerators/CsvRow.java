@@ -0,0 +1,169 @@
+package github.users.eirikma.iteratorgenerators;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A row of a csv file: the values in an array, indexed by column, and the field names in a CsvSchema shared
+ * by all rows of the file. Much smaller than a HashMap per row, and get(int) is an array lookup.
+ *
+ * As a Map, it has the same contents as the HashMaps CsvReader used to return: the named fields the row has values for,
+ * and CsvSchema.REMAINING if it has more fields than there are names. It can not be modified.
+ */
+public final class CsvRow extends AbstractMap<String, String> {
+
+    private final CsvSchema schema;
+    private final String[] values;
+    private Set<Entry<String, String>> entrySet;
+
+    CsvRow(CsvSchema schema, String[] values) {
+        this.schema = schema;
+        this.values = values;
+    }
+
+    public CsvSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * number of fields in this row, which may be more or less than the number of field names.
+     */
+    public int columnCount() {
+        return values.length;
+    }
+
+    /**
+     * @return the value of the field, or null if the row has no such field
+     */
+    public String get(int column) {
+        return column >= 0 && column < values.length ? values[column] : null;
+    }
+
+    @Override
+    public String get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int column = schema.indexOf((String) key);
+        if (column >= 0) {
+            return get(column);
+        }
+        return CsvSchema.REMAINING.equals(key) ? remaining() : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    public String get(String fieldName) {
+        return get((Object) fieldName);
+    }
+
+    /**
+     * @throws NumberFormatException if the field is missing or not an int
+     */
+    public int getInt(int column) {
+        return Integer.parseInt(get(column));
+    }
+
+    public int getInt(String fieldName) {
+        return getInt(schema.indexOf(fieldName));
+    }
+
+    /**
+     * @throws NumberFormatException if the field is missing or not a long
+     */
+    public long getLong(int column) {
+        return Long.parseLong(get(column));
+    }
+
+    public long getLong(String fieldName) {
+        return getLong(schema.indexOf(fieldName));
+    }
+
+    /**
+     * @throws NumberFormatException if the field is not a double
+     * @throws NullPointerException if the field is missing
+     */
+    public double getDouble(int column) {
+        return Double.parseDouble(get(column));
+    }
+
+    public double getDouble(String fieldName) {
+        return getDouble(schema.indexOf(fieldName));
+    }
+
+    private String remaining() {
+        if (values.length <= schema.size()) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = schema.size(); i < values.length; i++) {
+            sb.append(values[i]).append(schema.getSeparator());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * is 'column' the column of its field name (and not hidden by a later field with the same name)?
+     */
+    private boolean isKey(int column) {
+        return schema.indexOf(schema.getFieldNames().get(column)) == column;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Entry<String, String>>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new Iterator<Entry<String, String>>() {
+                        private final int named = Math.min(values.length, schema.size());
+                        private int column = nextKey(0);
+
+                        private int nextKey(int from) {
+                            while (from < named && !isKey(from)) {
+                                from++;
+                            }
+                            return from;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return column < named || (column == named && values.length > schema.size());
+                        }
+
+                        @Override
+                        public Entry<String, String> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException("next");
+                            }
+                            Entry<String, String> entry = column < named ?
+                                    new SimpleImmutableEntry<>(schema.getFieldNames().get(column), values[column]) :
+                                    new SimpleImmutableEntry<>(CsvSchema.REMAINING, remaining());
+                            column = column < named ? nextKey(column + 1) : column + 1;
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    int named = Math.min(values.length, schema.size());
+                    int size = values.length > schema.size() ? 1 : 0;
+                    for (int i = 0; i < named; i++) {
+                        if (isKey(i)) {
+                            size++;
+                        }
+                    }
+                    return size;
+                }
+            };
+        }
+        return entrySet;
+    }
+}
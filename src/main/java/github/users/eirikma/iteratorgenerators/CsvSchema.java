@@ -0,0 +1,53 @@
+package github.users.eirikma.iteratorgenerators;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The field names from the header of a csv file, shared by all the rows of the file (see CsvRow).
+ *
+ * If the header has the same name more than once, the name refers to the last of those columns,
+ * like it did when the rows were HashMaps filled column by column.
+ */
+public final class CsvSchema {
+
+    /**
+     * map key of the fields after the last named field, joined with the separator after each of them.
+     */
+    public static final String REMAINING = "___REMAINING___";
+
+    private final List<String> fieldNames;
+    private final HashMap<String, Integer> columns;
+    private final char separator;
+
+    CsvSchema(List<String> fieldNames, char separator) {
+        this.fieldNames = Collections.unmodifiableList(new ArrayList<>(fieldNames));
+        this.columns = new HashMap<>(fieldNames.size() * 4 / 3 + 1);
+        for (int i = 0; i < fieldNames.size(); i++) {
+            columns.put(fieldNames.get(i), i);
+        }
+        this.separator = separator;
+    }
+
+    public List<String> getFieldNames() {
+        return fieldNames;
+    }
+
+    public int size() {
+        return fieldNames.size();
+    }
+
+    /**
+     * @return the column of the field, or -1 if there is no such field
+     */
+    public int indexOf(String fieldName) {
+        Integer column = columns.get(fieldName);
+        return column == null ? -1 : column;
+    }
+
+    public char getSeparator() {
+        return separator;
+    }
+}
@@ -0,0 +1,229 @@
+package github.users.eirikma.iteratorgenerators;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Single-pass csv tokenizer: a small state machine walking a reusable char buffer, without regular expressions.
+ *
+ * Fields may be quoted with '"'. Inside quotes, separators and line breaks are part of the field, and '""' is
+ * an escaped quote. Quotes in the middle of unquoted fields are kept as they are. Records end with \n, \r\n or \r.
+ *
+ * Like String.split(separator), which the csv reader used before, empty fields at the end of a record are dropped,
+ * unless the record has only one field (an empty line gives one empty field).
+ *
+ * Not thread safe
+ */
+final class CsvTokenizer implements Closeable {
+
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final char QUOTE = '"';
+
+    private final Reader reader;
+    private final StringBuilder unescaped = new StringBuilder();
+    private char[] buffer;
+    private int pos = 0;
+    private int limit = 0;
+    private boolean eof = false;
+    private boolean skipLineFeed = false;
+    private char separator = ',';
+
+    CsvTokenizer(Reader reader) {
+        this(reader, DEFAULT_BUFFER_SIZE);
+    }
+
+    CsvTokenizer(Reader reader, int bufferSize) {
+        this.reader = reader;
+        this.buffer = new char[Math.max(16, bufferSize)];
+    }
+
+    void setSeparator(char separator) {
+        if (separator == QUOTE || separator == '\n' || separator == '\r') {
+            throw new IllegalArgumentException("invalid separator: " + separator);
+        }
+        this.separator = separator;
+    }
+
+    char getSeparator() {
+        return separator;
+    }
+
+    /**
+     * find the candidate used most often (outside quotes) in the first line, without consuming it.
+     *
+     * @return the most used candidate, or the first candidate if none of them are used.
+     */
+    char detectSeparator(char[] candidates) throws IOException {
+        int[] counts = new int[candidates.length];
+        boolean inQuotes = false;
+        int i = pos;
+        while (true) {
+            if (i >= limit) {
+                i -= compact(pos);
+                if (i >= limit) {
+                    break;
+                }
+            }
+            char c = buffer[i++];
+            if (c == QUOTE) {
+                inQuotes = !inQuotes;
+            } else if (!inQuotes && (c == '\n' || c == '\r')) {
+                break;
+            } else if (!inQuotes) {
+                for (int j = 0; j < candidates.length; j++) {
+                    if (c == candidates[j]) {
+                        counts[j]++;
+                    }
+                }
+            }
+        }
+        int best = 0;
+        for (int j = 1; j < candidates.length; j++) {
+            if (counts[j] > counts[best]) {
+                best = j;
+            }
+        }
+        return candidates[best];
+    }
+
+    /**
+     * read the fields of the next record into 'fields' (which is cleared first).
+     *
+     * @return false if there are no more records.
+     */
+    boolean readRecord(List<String> fields) throws IOException {
+        fields.clear();
+        if (skipLineFeed) {
+            if (pos >= limit) {
+                compact(pos);
+            }
+            if (pos < limit && buffer[pos] == '\n') {
+                pos++;
+            }
+            skipLineFeed = false;
+        }
+        if (pos >= limit) {
+            compact(pos);
+            if (pos >= limit) {
+                return false;
+            }
+        }
+        int significantFields = 0;
+        int fieldStart = pos;
+        int i = pos;
+        boolean quoted = false;
+        boolean inQuotes = false;
+        while (true) {
+            if (i >= limit) {
+                int shift = compact(fieldStart);
+                i -= shift;
+                fieldStart -= shift;
+                if (i >= limit) {
+                    // end of input ends the last record, even inside quotes
+                    significantFields = addField(fields, fieldStart, i, quoted, significantFields);
+                    pos = i;
+                    break;
+                }
+            }
+            char c = buffer[i];
+            if (inQuotes) {
+                if (c == QUOTE) {
+                    // either the closing quote or the first half of an escaped quote: the next char decides, see below
+                    inQuotes = false;
+                }
+                i++;
+            } else if (c == separator) {
+                significantFields = addField(fields, fieldStart, i, quoted, significantFields);
+                i++;
+                fieldStart = i;
+                quoted = false;
+            } else if (c == '\n' || c == '\r') {
+                significantFields = addField(fields, fieldStart, i, quoted, significantFields);
+                skipLineFeed = c == '\r';
+                pos = i + 1;
+                break;
+            } else if (c == QUOTE && (i == fieldStart || (quoted && buffer[i - 1] == QUOTE))) {
+                // opening quote, or the second half of an escaped quote (""): back inside quotes
+                quoted = true;
+                inQuotes = true;
+                i++;
+            } else {
+                i++;
+            }
+        }
+        if (fields.size() > 1) {
+            for (int f = fields.size() - 1; f >= significantFields; f--) {
+                fields.remove(f);
+            }
+        }
+        return true;
+    }
+
+    private int addField(List<String> fields, int start, int end, boolean quoted, int significantFields) {
+        String value = quoted ? unescape(start, end) : new String(buffer, start, end - start);
+        fields.add(value);
+        return (quoted || !value.isEmpty()) ? fields.size() : significantFields;
+    }
+
+    /**
+     * the value of a field that starts with a quote: without the enclosing quotes, and with "" replaced by ".
+     * Characters after the closing quote are kept as they are.
+     */
+    private String unescape(int start, int end) {
+        unescaped.setLength(0);
+        boolean inQuotes = false;
+        for (int i = start; i < end; i++) {
+            char c = buffer[i];
+            if (inQuotes) {
+                if (c == QUOTE) {
+                    inQuotes = false;
+                } else {
+                    unescaped.append(c);
+                }
+            } else if (c == QUOTE && (i == start || buffer[i - 1] == QUOTE)) {
+                if (i != start) {
+                    unescaped.append(QUOTE);
+                }
+                inQuotes = true;
+            } else {
+                unescaped.append(c);
+            }
+        }
+        return unescaped.toString();
+    }
+
+    /**
+     * move the chars from 'keepFrom' to the start of the buffer and read more input after them,
+     * growing the buffer if it is full of chars to keep.
+     *
+     * @return the number of positions the kept chars were moved back.
+     */
+    private int compact(int keepFrom) throws IOException {
+        if (keepFrom > 0) {
+            System.arraycopy(buffer, keepFrom, buffer, 0, limit - keepFrom);
+            limit -= keepFrom;
+            pos = Math.max(0, pos - keepFrom);
+        }
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        while (!eof && limit < buffer.length) {
+            int n = reader.read(buffer, limit, buffer.length - limit);
+            if (n < 0) {
+                eof = true;
+            } else if (n > 0) {
+                limit += n;
+                break;
+            }
+        }
+        return keepFrom;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,15 @@
+package github.users.eirikma.iteratorgenerators;
+
+/**
+ * Generator of double values: the same as Generator, yielding to a DoubleYield instead of boxing each value.
+ */
+public interface DoubleGenerator {
+
+    /**
+     * Produce new value(s) for the iterator to iterate over, see Generator.yieldNextValues().
+     * If no values are yielded, the generator is finished.
+     *
+     * @param yieldTarget - the target containing the yield(double) method that must be called to yield values.
+     */
+    void yieldNextValues(DoubleYield yieldTarget);
+}
@@ -0,0 +1,53 @@
+package github.users.eirikma.iteratorgenerators;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.PrimitiveIterator;
+
+/**
+ * IteratorExt for double values: nextDouble() and nextN() into a double[] instead of boxing each value.
+ */
+public interface DoubleIteratorExt extends PrimitiveIterator.OfDouble, Closeable {
+
+    /**
+     * see IteratorExt.available()
+     */
+    default int available() {
+        return hasNext() ? 1 : 0;
+    }
+
+    /**
+     * retrieve many values into an array, see IteratorExt.nextN().
+     *
+     * @return actually values gotten.
+     */
+    default int nextN(double[] buffer, int offset, int count) {
+        int toGet = Math.min(buffer.length - offset, count);
+        int gotten = 0;
+        while (gotten < toGet && hasNext()) {
+            buffer[offset + gotten] = nextDouble();
+            gotten++;
+        }
+        return gotten;
+    }
+
+    @Override
+    default void close() throws IOException {
+    }
+
+    default boolean isClosed() {
+        return !hasNext();
+    }
+
+    /**
+     * Guaranteed to throw an exception and leave the underlying data unmodified.
+     *
+     * @throws UnsupportedOperationException always
+     * @deprecated Unsupported operation.
+     */
+    @Deprecated
+    @Override
+    default void remove() {
+        throw new UnsupportedOperationException("Iterator.remove()");
+    }
+}
@@ -0,0 +1,302 @@
+package github.users.eirikma.iteratorgenerators;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Executor;
+import java.util.function.DoubleBinaryOperator;
+import java.util.stream.DoubleStream;
+import java.util.stream.StreamSupport;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The factories of Iterators for double values, passing them on without boxing.
+ * A copy of IntIterators: change them together. background() is shared, see PrimitiveBackground.
+ */
+public final class DoubleIterators {
+
+    private DoubleIterators() {
+    }
+
+    public static DoubleIteratorExt iteratorExt(PrimitiveIterator.OfDouble iterator) {
+        return iterator instanceof DoubleIteratorExt ?
+                (DoubleIteratorExt) iterator :
+                new DoubleIteratorExt() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public double nextDouble() {
+                        return iterator.nextDouble();
+                    }
+                };
+    }
+
+    public static DoubleIteratorExt values(double... values) {
+        return new DoubleIteratorExt() {
+            int pos = 0;
+
+            @Override
+            public boolean hasNext() {
+                return pos < values.length;
+            }
+
+            @Override
+            public double nextDouble() {
+                if (pos >= values.length) {
+                    throw new NoSuchElementException("next");
+                }
+                return values[pos++];
+            }
+
+            @Override
+            public int available() {
+                return values.length - pos;
+            }
+
+            @Override
+            public int nextN(double[] buffer, int offset, int count) {
+                int toGet = Math.min(Math.min(buffer.length - offset, count), values.length - pos);
+                if (toGet <= 0) {
+                    return 0;
+                }
+                System.arraycopy(values, pos, buffer, offset, toGet);
+                pos += toGet;
+                return toGet;
+            }
+        };
+    }
+
+    /**
+     * see Iterators.generator(). Yielded values are kept in a double[] ring buffer until they are consumed.
+     * The iterator is closed by calling close() on either the iterator or the yield.
+     */
+    public static DoubleIteratorExt generator(DoubleGenerator generator) {
+        checkNotNull(generator);
+        return new DoubleIteratorExt() {
+            private final DoubleRingBuffer yieldedValues = new DoubleRingBuffer();
+            private long yieldCount = 0L;
+            private boolean closed = false;
+            private final DoubleYield yield = new DoubleYield() {
+                @Override
+                public void yield(double value) {
+                    yieldedValues.addLast(value);
+                    yieldCount++;
+                }
+
+                @Override
+                public int yieldN(double[] values, int offset, int count) {
+                    int toYield = Math.min(values.length - offset, count);
+                    if (toYield <= 0) {
+                        return 0;
+                    }
+                    yieldedValues.addAll(values, offset, toYield);
+                    yieldCount += toYield;
+                    return toYield;
+                }
+
+                @Override
+                public long count() {
+                    return yieldCount;
+                }
+
+                /**
+                 * the buffer grows, so yielding never blocks
+                 */
+                @Override
+                public int capacity() {
+                    return closed ? 0 : Integer.MAX_VALUE - yieldedValues.size();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    closed = true;
+                }
+
+                @Override
+                public boolean isClosed() {
+                    return yieldedValues.isEmpty() && closed;
+                }
+            };
+
+            @Override
+            public boolean hasNext() {
+                if (yieldedValues.isEmpty() && !closed) {
+                    generator.yieldNextValues(yield);
+                }
+                return !yieldedValues.isEmpty();
+            }
+
+            @Override
+            public double nextDouble() {
+                if (hasNext()) {
+                    return yieldedValues.removeFirst();
+                }
+                throw new NoSuchElementException("next");
+            }
+
+            @Override
+            public int available() {
+                return hasNext() ? yieldedValues.size() : 0;
+            }
+
+            @Override
+            public int nextN(double[] buffer, int offset, int count) {
+                int toGet = Math.min(buffer.length - offset, count);
+                int gotten = 0;
+                while (gotten < toGet && hasNext()) {
+                    gotten += yieldedValues.removeFirstN(buffer, offset + gotten, toGet - gotten);
+                }
+                return gotten;
+            }
+
+            @Override
+            public void close() throws IOException {
+                closed = true;
+            }
+
+            @Override
+            public boolean isClosed() {
+                return closed;
+            }
+        };
+    }
+
+    /**
+     * see Iterators.batchesOf(): arrays of 'batchSize' values (the last one may be shorter), filled with nextN().
+     */
+    public static IteratorExt<double[]> batchesOf(int batchSize, PrimitiveIterator.OfDouble iterator) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be > 0, not: " + batchSize);
+        }
+        DoubleIteratorExt source = iteratorExt(iterator);
+        return Iterators.generator(yield -> {
+            double[] batch = new double[batchSize];
+            int size = 0;
+            int gotten;
+            while (size < batchSize && (gotten = source.nextN(batch, size, batchSize - size)) > 0) {
+                size += gotten;
+            }
+            if (size > 0) {
+                yield.yield(size == batchSize ? batch : Arrays.copyOf(batch, size));
+            }
+        });
+    }
+
+    /**
+     * flattens one level of iterators: iterating the values contained in the provided iterators.
+     */
+    public static DoubleIteratorExt flatten(Iterator<? extends PrimitiveIterator.OfDouble> iterators) {
+        return new DoubleIteratorExt() {
+            private DoubleIteratorExt current = null;
+
+            @Override
+            public boolean hasNext() {
+                while ((current == null || !current.hasNext()) && iterators.hasNext()) {
+                    current = iteratorExt(iterators.next());
+                }
+                return current != null && current.hasNext();
+            }
+
+            @Override
+            public double nextDouble() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("next");
+                }
+                return current.nextDouble();
+            }
+
+            @Override
+            public int nextN(double[] buffer, int offset, int count) {
+                int toGet = Math.min(buffer.length - offset, count);
+                int gotten = 0;
+                while (gotten < toGet && hasNext()) {
+                    gotten += current.nextN(buffer, offset + gotten, toGet - gotten);
+                }
+                return gotten;
+            }
+        };
+    }
+
+    /**
+     * combine the values of two sequences pairwise. The length of the result is equal to the shortest of the input sequences.
+     */
+    public static DoubleIteratorExt zip(PrimitiveIterator.OfDouble iter1, PrimitiveIterator.OfDouble iter2, DoubleBinaryOperator combiner) {
+        checkNotNull(combiner);
+        return new DoubleIteratorExt() {
+            @Override
+            public boolean hasNext() {
+                return iter1.hasNext() && iter2.hasNext();
+            }
+
+            @Override
+            public double nextDouble() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("next");
+                }
+                return combiner.applyAsDouble(iter1.nextDouble(), iter2.nextDouble());
+            }
+        };
+    }
+
+    public static DoubleStream stream(PrimitiveIterator.OfDouble iterator) {
+        return StreamSupport.doubleStream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false);
+    }
+
+    public static DoubleIteratorExt background(DoubleGenerator generator) {
+        return background(generator, BackgroundThreads.defaultExecutor());
+    }
+
+    /**
+     * run the generator in the background, see Iterators.background().
+     * The values are handed over in chunks of double[] at the end of each generator call, or before when a chunk is full,
+     * see PrimitiveBackground. The chunks are given back to the generator's side when consumed, so a running generator
+     * allocates nothing.
+     */
+    public static DoubleIteratorExt background(DoubleGenerator generator, Executor executor) {
+        checkNotNull(generator);
+        ChunkYield yield = new ChunkYield();
+        return new ChunkIterator(yield, () -> generator.yieldNextValues(yield), executor);
+    }
+
+    private static final class ChunkYield extends PrimitiveBackground.ChunkYield<double[]> implements DoubleYield {
+        ChunkYield() {
+            super(double[]::new);
+        }
+
+        @Override
+        public void yield(double value) {
+            PrimitiveChunk<double[]> chunk = chunkWithRoom();
+            chunk.values[chunk.size++] = value;
+            yielded();
+        }
+
+        @Override
+        public int yieldN(double[] values, int offset, int count) {
+            return yieldValues(values, values.length, offset, count);
+        }
+    }
+
+    private static final class ChunkIterator extends PrimitiveBackground.ChunkIterator<double[]> implements DoubleIteratorExt {
+        ChunkIterator(ChunkYield yield, Runnable generate, Executor executor) {
+            super(yield, generate, executor);
+        }
+
+        @Override
+        public double nextDouble() {
+            return currentChunk().values[pos++];
+        }
+
+        @Override
+        public int nextN(double[] buffer, int offset, int count) {
+            return nextValues(buffer, buffer.length, offset, count);
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package github.users.eirikma.iteratorgenerators;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Sorts more values than fit in memory, see Iterators.sorted().
+ *
+ * The input is read into runs of half the memory budget. Each full run is sorted and written to a temp file in a task
+ * on the executor, while the next run is read, so at most two runs are in memory. The last run, which is not full,
+ * is sorted and kept in memory. The runs are then merged with a MergeSortedIterator, each file read as it goes.
+ * If the input fits in one run, nothing is written to disk.
+ *
+ * At most 'fanIn' runs are merged at a time, as each has an open file and buffers of its own. With more runs than that,
+ * they are first merged in passes, 'fanIn' consecutive runs into one new run file, until few enough are left.
+ *
+ * The sorting starts at the first call to hasNext() or next(). The temp files are deleted when the merge is done,
+ * when the iterator is closed, or if the sorting fails.
+ *
+ * Not thread safe
+ */
+class ExternalSortIterator<T> implements IteratorExt<T> {
+
+    static final int DEFAULT_FAN_IN = 64;
+    private static final int MERGE_BUFFER_SIZE = 64;
+    private static final int FILE_BUFFER_SIZE = 1 << 16;
+
+    private final IteratorExt<T> input;
+    private final Comparator<? super T> comparator;
+    private final int runSize;
+    private final SpillCodec<T> codec;
+    private final Path directory;
+    private final Executor executor;
+    private final int fanIn;
+    private final List<Path> files = new ArrayList<>();
+    private IteratorExt<T> merged;
+    // the run being read, while sorting
+    private T[] reading;
+    private boolean closed = false;
+
+    ExternalSortIterator(IteratorExt<T> input, Comparator<? super T> comparator, long memoryBudget, SpillCodec<T> codec,
+                         Path directory, Executor executor, int fanIn) {
+        if (memoryBudget < 2) {
+            throw new IllegalArgumentException("memoryBudget must be > 1, not: " + memoryBudget);
+        }
+        if (fanIn < 2) {
+            throw new IllegalArgumentException("fanIn must be > 1, not: " + fanIn);
+        }
+        this.input = input;
+        this.comparator = comparator;
+        this.runSize = (int) Math.min(Integer.MAX_VALUE - 8, memoryBudget / 2);
+        this.codec = codec;
+        this.directory = directory;
+        this.executor = executor;
+        this.fanIn = fanIn;
+    }
+
+    @SuppressWarnings("unchecked")
+    private IteratorExt<T> sort() throws IOException {
+        List<Run> runs = new ArrayList<>();
+        T[] spare = null;
+        FutureTask<Run> spilling = null;
+        reading = (T[]) Iterators.nextNBuffer(input, Math.min(runSize, 1024));
+        try {
+            while (true) {
+                int count = fill();
+                if (count < runSize) {
+                    Arrays.sort(reading, 0, count, comparator);
+                    IteratorExt<T> inMemory = Iterators.values(reading).limit(count);
+                    if (spilling == null) {
+                        return inMemory;
+                    }
+                    runs.add(await(spilling));
+                    spilling = null;
+                    // the runs in memory are not needed for the passes
+                    reading = null;
+                    spare = null;
+                    // leave room for the run in memory in the last merge
+                    while (runs.size() >= fanIn) {
+                        runs = mergePass(runs);
+                    }
+                    List<IteratorExt<T>> inputs = open(runs);
+                    inputs.add(inMemory);
+                    return new MergeSortedIterator<>(comparator, inputs, MERGE_BUFFER_SIZE);
+                }
+                if (spilling != null) {
+                    runs.add(await(spilling));
+                }
+                T[] full = reading;
+                spilling = new FutureTask<>(() -> spill(full));
+                executor.execute(spilling);
+                reading = spare != null ? spare : (T[]) Iterators.nextNBuffer(input, runSize);
+                spare = full;
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            if (spilling != null) {
+                spilling.cancel(true);
+            }
+            throw e;
+        } finally {
+            reading = null;
+        }
+    }
+
+    /**
+     * read up to 'runSize' values into 'reading', growing it (up to runSize) as needed so small inputs use little memory.
+     * 'reading' is of the array type the input's nextN() takes, so inputs overriding it for String[] etc. work too.
+     *
+     * @return the number of values read, less than runSize at the end of the input
+     */
+    private int fill() {
+        int count = 0;
+        while (count < runSize && input.hasNext()) {
+            if (count == reading.length) {
+                reading = Arrays.copyOf(reading, (int) Math.min(runSize, reading.length * 2L));
+            }
+            count += Iterators.nextN(input, reading, count, reading.length - count);
+        }
+        return count;
+    }
+
+    private Run spill(T[] run) throws IOException {
+        Arrays.sort(run, 0, run.length, comparator);
+        Path file = createFile();
+        try (DataOutputStream output = output(file)) {
+            for (int i = 0; i < run.length; i++) {
+                codec.write(run[i], output);
+                run[i] = null;
+            }
+        }
+        return new Run(file, run.length);
+    }
+
+    /**
+     * merge each 'fanIn' consecutive runs into one, so equal values stay in input order.
+     */
+    private List<Run> mergePass(List<Run> runs) throws IOException {
+        List<Run> merged = new ArrayList<>(runs.size() / fanIn + 1);
+        for (int start = 0; start < runs.size(); start += fanIn) {
+            List<Run> group = runs.subList(start, Math.min(runs.size(), start + fanIn));
+            merged.add(group.size() == 1 ? group.get(0) : merge(group));
+        }
+        return merged;
+    }
+
+    private Run merge(List<Run> group) throws IOException {
+        Path file = createFile();
+        long count = 0L;
+        try (IteratorExt<T> values = new MergeSortedIterator<>(comparator, open(group), MERGE_BUFFER_SIZE);
+             DataOutputStream output = output(file)) {
+            while (values.hasNext()) {
+                codec.write(values.next(), output);
+                count++;
+            }
+        }
+        for (Run run : group) {
+            delete(run.file);
+        }
+        return new Run(file, count);
+    }
+
+    /**
+     * start reading the runs, closing the ones already opened if one fails.
+     */
+    private List<IteratorExt<T>> open(List<Run> runs) throws IOException {
+        List<IteratorExt<T>> inputs = new ArrayList<>(runs.size() + 1);
+        try {
+            for (Run run : runs) {
+                inputs.add(run.read());
+            }
+        } catch (IOException | RuntimeException e) {
+            for (IteratorExt<T> opened : inputs) {
+                try {
+                    opened.close();
+                } catch (IOException | RuntimeException closing) {
+                    e.addSuppressed(closing);
+                }
+            }
+            throw e;
+        }
+        return inputs;
+    }
+
+    private Path createFile() throws IOException {
+        Path file = Files.createTempFile(directory, "iterators-sort-", ".run");
+        synchronized (files) {
+            files.add(file);
+        }
+        return file;
+    }
+
+    private DataOutputStream output(Path file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), FILE_BUFFER_SIZE));
+    }
+
+    private void delete(Path file) throws IOException {
+        Files.deleteIfExists(file);
+        synchronized (files) {
+            files.remove(file);
+        }
+    }
+
+    private Run await(FutureTask<Run> spilling) throws IOException {
+        try {
+            return spilling.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException("spilling a run failed", e.getCause());
+        }
+    }
+
+    private IteratorExt<T> merged() {
+        if (merged == null && !closed) {
+            try {
+                merged = sort();
+            } catch (IOException e) {
+                closeQuietly();
+                throw new RuntimeException(e);
+            } catch (RuntimeException | Error e) {
+                closeQuietly();
+                throw e;
+            }
+        }
+        return merged;
+    }
+
+    @Override
+    public boolean hasNext() {
+        IteratorExt<T> values = merged();
+        if (values != null && values.hasNext()) {
+            return true;
+        }
+        closeQuietly();
+        return false;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("next");
+        }
+        return merged.next();
+    }
+
+    @Override
+    public int nextN(T[] buffer, int offset, int count) {
+        return hasNext() ? merged.nextN(buffer, offset, count) : 0;
+    }
+
+    @Override
+    public int available() {
+        return merged == null || closed ? 0 : merged.available();
+    }
+
+    /**
+     * stops the merge, closes the input and deletes the temp files.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (merged != null) {
+                merged.close();
+            }
+            input.close();
+        } finally {
+            merged = null;
+            deleteFiles();
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException | RuntimeException e) {
+            // the files are deleted anyway
+        }
+    }
+
+    private void deleteFiles() throws IOException {
+        IOException failure = null;
+        synchronized (files) {
+            for (Path file : files) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    failure = failure == null ? e : failure;
+                }
+            }
+            files.clear();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * a sorted run in a temp file
+     */
+    private final class Run {
+        final Path file;
+        final long count;
+
+        Run(Path file, long count) {
+            this.file = file;
+            this.count = count;
+        }
+
+        IteratorExt<T> read() throws IOException {
+            DataInputStream data = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), FILE_BUFFER_SIZE));
+            return new IteratorExt<T>() {
+                private long left = count;
+
+                @Override
+                public boolean hasNext() {
+                    return left > 0;
+                }
+
+                @Override
+                public T next() {
+                    if (left <= 0) {
+                        throw new NoSuchElementException("next");
+                    }
+                    try {
+                        T value = codec.read(data);
+                        if (--left == 0) {
+                            data.close();
+                        }
+                        return value;
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                @Override
+                public int available() {
+                    return (int) Math.min(Integer.MAX_VALUE, left);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    left = 0;
+                    data.close();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package github.users.eirikma.iteratorgenerators;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * The iterator behind IteratorExt.map(), filter(), takeWhile(), limit() and peek(): the stages are composed into one
+ * function run on each source value in one pull loop, instead of one iterator per stage. The function returns SKIP for
+ * values filtered away and END where takeWhile() stops. Calling one of these methods on a FusedIterator that has not
+ * been used yet adds the stage to it (in a new FusedIterator) rather than wrapping it.
+ *
+ * A limit() is counted on the values coming out of the loop, so stages that change the number of values
+ * (filter and flatMap) can not be fused in after it, and get an iterator of their own.
+ *
+ * Not thread safe
+ */
+final class FusedIterator<S, T> implements IteratorExt<T> {
+
+    private static final Object SKIP = new Object();
+    private static final Object END = new Object();
+
+    private final IteratorExt<S> source;
+    // null means no stages
+    private final Function<Object, Object> stages;
+    private long remaining;
+    private boolean started = false;
+    private boolean ended = false;
+    private boolean ready = false;
+    private Object next;
+
+    private FusedIterator(IteratorExt<S> source, Function<Object, Object> stages, long remaining) {
+        this.source = source;
+        this.stages = stages;
+        this.remaining = remaining;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> FusedIterator<T, T> of(IteratorExt<T> iterator) {
+        return iterator instanceof FusedIterator && !((FusedIterator<?, T>) iterator).started ?
+                (FusedIterator<T, T>) iterator :
+                new FusedIterator<>(iterator, null, Long.MAX_VALUE);
+    }
+
+    /**
+     * a new iterator with 'stage' run on the values of this one, before the limit.
+     */
+    private <R> IteratorExt<R> then(Function<Object, Object> stage) {
+        Function<Object, Object> previous = stages;
+        Function<Object, Object> composed = previous == null ? stage : value -> {
+            Object out = previous.apply(value);
+            return out == SKIP || out == END ? out : stage.apply(out);
+        };
+        return new FusedIterator<S, R>(source, composed, remaining);
+    }
+
+    private boolean limited() {
+        return remaining != Long.MAX_VALUE;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <R> IteratorExt<R> map(Function<? super T, ? extends R> function) {
+        return started ? IteratorExt.super.map(function) : then(value -> function.apply((T) value));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public IteratorExt<T> filter(Predicate<? super T> predicate) {
+        return started || limited() ?
+                new FusedIterator<T, T>(this, value -> predicate.test((T) value) ? value : SKIP, Long.MAX_VALUE) :
+                then(value -> predicate.test((T) value) ? value : SKIP);
+    }
+
+    /**
+     * stops before the first value not matching. Unlike filter() this can be fused in after a limit, since the limit
+     * counts the values that reach it, which are the ones takeWhile() sees.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public IteratorExt<T> takeWhile(Predicate<? super T> predicate) {
+        return started ? IteratorExt.super.takeWhile(predicate) : then(value -> predicate.test((T) value) ? value : END);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public IteratorExt<T> peek(Consumer<? super T> action) {
+        return started ? IteratorExt.super.peek(action) : then(value -> {
+            action.accept((T) value);
+            return value;
+        });
+    }
+
+    @Override
+    public IteratorExt<T> limit(long maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must be >= 0, not: " + maxSize);
+        }
+        return started ? IteratorExt.super.limit(maxSize) : new FusedIterator<>(source, stages, Math.min(remaining, maxSize));
+    }
+
+    /**
+     * a flattening iterator over this one, with no stages yet. Further stages are fused into it.
+     */
+    static <T, R> IteratorExt<R> flatMap(IteratorExt<T> iterator, Function<? super T, ? extends Iterator<? extends R>> function) {
+        return new FusedIterator<>(new IteratorExt<R>() {
+            private Iterator<? extends R> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext()) {
+                    if (!iterator.hasNext()) {
+                        return false;
+                    }
+                    current = function.apply(iterator.next());
+                }
+                return true;
+            }
+
+            @Override
+            public R next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("next");
+                }
+                return current.next();
+            }
+
+            @Override
+            public void close() throws IOException {
+                iterator.close();
+            }
+        }, null, Long.MAX_VALUE);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (ready) {
+            return true;
+        }
+        started = true;
+        if (ended || remaining == 0L) {
+            return false;
+        }
+        while (source.hasNext()) {
+            S value = source.next();
+            Object out = stages == null ? value : stages.apply(value);
+            if (out == SKIP) {
+                continue;
+            }
+            if (out == END) {
+                break;
+            }
+            next = out;
+            ready = true;
+            return true;
+        }
+        ended = true;
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("next");
+        }
+        T value = (T) next;
+        next = null;
+        ready = false;
+        if (limited()) {
+            remaining--;
+        }
+        return value;
+    }
+
+    @Override
+    public int available() {
+        return ready ? 1 : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        ended = true;
+        ready = false;
+        next = null;
+        source.close();
+    }
+
+    /**
+     * true once the end has been seen or the iterator is closed. Does not pull from the source, so the stages
+     * (and their side effects) only run for hasNext() and next().
+     */
+    @Override
+    public boolean isClosed() {
+        return !ready && (ended || remaining == 0L);
+    }
+}
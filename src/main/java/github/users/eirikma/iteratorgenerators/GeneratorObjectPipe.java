@@ -1,6 +1,5 @@
 package github.users.eirikma.iteratorgenerators;
 
-import java.util.LinkedList;
 import java.util.NoSuchElementException;
 
 /**
@@ -9,7 +8,7 @@ import java.util.NoSuchElementException;
 class GeneratorObjectPipe<T> implements ObjectPipe<T> {
 
     private final Generator<T, ? extends Yield<T>> generator;
-    private LinkedList<T> buffer = new LinkedList<T>();
+    private final ObjectRingBuffer<T> buffer = new ObjectRingBuffer<T>();
     private volatile boolean closed;
     private long yieldCount = 0L;
     private Yield<T> yield;
@@ -28,6 +27,17 @@ class GeneratorObjectPipe<T> implements ObjectPipe<T> {
                 buffer.addLast(value);
             }
 
+            @Override
+            public int yieldN(T[] values, int offset, int count) {
+                if (isClosed()) {
+                    throw new RuntimeException("closed");
+                }
+                int toYield = Math.max(0, Math.min(values.length - offset, count));
+                buffer.addAll(values, offset, toYield);
+                yieldCount += toYield;
+                return toYield;
+            }
+
             @Override
             public long count() {
                 return yieldCount;
@@ -38,7 +48,13 @@ class GeneratorObjectPipe<T> implements ObjectPipe<T> {
                 return closed;
             }
 
-
+            /**
+             * the buffer grows, so yielding never blocks
+             */
+            @Override
+            public int capacity() {
+                return closed ? 0 : Integer.MAX_VALUE - buffer.size();
+            }
         };
 
         iterator = new IteratorExt<T>() {
@@ -55,11 +71,26 @@ class GeneratorObjectPipe<T> implements ObjectPipe<T> {
             @Override
             public T next() {
                 if (hasNext()) {
-                    return buffer.pop();
+                    return buffer.removeFirst();
                 }
                 throw new NoSuchElementException("next");
             }
 
+            @Override
+            public int nextN(T[] target, int offset, int count) {
+                int toGet = Math.min(target.length - offset, count);
+                int gotten = 0;
+                while (gotten < toGet && hasNext()) {
+                    gotten += buffer.removeFirstN(target, offset + gotten, toGet - gotten);
+                }
+                return gotten;
+            }
+
+            @Override
+            public int available() {
+                return buffer.size();
+            }
+
         };
     }
 
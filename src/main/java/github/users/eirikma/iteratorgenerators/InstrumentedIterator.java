@@ -0,0 +1,115 @@
+package github.users.eirikma.iteratorgenerators;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * Measures the consumer side of a stage, see Iterators.instrumented().
+ *
+ * The source is only timed when the values it had ready the last time have been taken: while it has values ready,
+ * hasNext() and next() cost a counter update more than the source's own. The element count is published
+ * to the metrics at those times too, so it lags behind by up to the number of values ready.
+ *
+ * Not thread safe
+ */
+class InstrumentedIterator<T> implements IteratorExt<T> {
+
+    private final IteratorExt<T> source;
+    private final StageMetrics metrics;
+    private final StageListener listener;
+    private int ready = 0;
+    private long taken = 0L;
+
+    InstrumentedIterator(IteratorExt<T> source, StageMetrics metrics, StageListener listener) {
+        this.source = source;
+        this.metrics = metrics;
+        this.listener = listener;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (ready > 0) {
+            return true;
+        }
+        if (metrics.isFinished()) {
+            return false;
+        }
+        if (metrics.start()) {
+            listener.started(metrics);
+        }
+        publish();
+        long start = System.nanoTime();
+        boolean hasNext;
+        try {
+            hasNext = source.hasNext();
+        } catch (RuntimeException | Error e) {
+            finish();
+            throw e;
+        }
+        long waited = System.nanoTime() - start;
+        if (!hasNext) {
+            metrics.addWait(waited, 0);
+            finish();
+            return false;
+        }
+        ready = Math.max(1, source.available());
+        metrics.addWait(waited, ready);
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("next");
+        }
+        T value = source.next();
+        ready--;
+        taken++;
+        return value;
+    }
+
+    @Override
+    public int nextN(T[] buffer, int offset, int count) {
+        if (!hasNext()) {
+            return 0;
+        }
+        int gotten = source.nextN(buffer, offset, Math.min(count, ready));
+        ready -= gotten;
+        taken += gotten;
+        return gotten;
+    }
+
+    @Override
+    public int available() {
+        return ready;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            source.close();
+        } finally {
+            finish();
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return ready == 0 && (metrics.isFinished() || source.isClosed());
+    }
+
+    private void publish() {
+        if (taken > 0L) {
+            metrics.addElements(taken);
+            taken = 0L;
+        }
+    }
+
+    private void finish() {
+        publish();
+        ready = 0;
+        if (metrics.finish()) {
+            listener.finished(metrics);
+        }
+    }
+}
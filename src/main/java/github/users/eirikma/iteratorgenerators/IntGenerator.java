@@ -0,0 +1,15 @@
+package github.users.eirikma.iteratorgenerators;
+
+/**
+ * Generator of int values: the same as Generator, yielding to a IntYield instead of boxing each value.
+ */
+public interface IntGenerator {
+
+    /**
+     * Produce new value(s) for the iterator to iterate over, see Generator.yieldNextValues().
+     * If no values are yielded, the generator is finished.
+     *
+     * @param yieldTarget - the target containing the yield(int) method that must be called to yield values.
+     */
+    void yieldNextValues(IntYield yieldTarget);
+}
@@ -0,0 +1,303 @@
+package github.users.eirikma.iteratorgenerators;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Executor;
+import java.util.function.IntBinaryOperator;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The factories of Iterators for int values, passing them on without boxing.
+ * LongIterators and DoubleIterators are copies of this class for long and double values: change them together.
+ * background() is shared by all three, see PrimitiveBackground.
+ */
+public final class IntIterators {
+
+    private IntIterators() {
+    }
+
+    public static IntIteratorExt iteratorExt(PrimitiveIterator.OfInt iterator) {
+        return iterator instanceof IntIteratorExt ?
+                (IntIteratorExt) iterator :
+                new IntIteratorExt() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public int nextInt() {
+                        return iterator.nextInt();
+                    }
+                };
+    }
+
+    public static IntIteratorExt values(int... values) {
+        return new IntIteratorExt() {
+            int pos = 0;
+
+            @Override
+            public boolean hasNext() {
+                return pos < values.length;
+            }
+
+            @Override
+            public int nextInt() {
+                if (pos >= values.length) {
+                    throw new NoSuchElementException("next");
+                }
+                return values[pos++];
+            }
+
+            @Override
+            public int available() {
+                return values.length - pos;
+            }
+
+            @Override
+            public int nextN(int[] buffer, int offset, int count) {
+                int toGet = Math.min(Math.min(buffer.length - offset, count), values.length - pos);
+                if (toGet <= 0) {
+                    return 0;
+                }
+                System.arraycopy(values, pos, buffer, offset, toGet);
+                pos += toGet;
+                return toGet;
+            }
+        };
+    }
+
+    /**
+     * see Iterators.generator(). Yielded values are kept in a int[] ring buffer until they are consumed.
+     * The iterator is closed by calling close() on either the iterator or the yield.
+     */
+    public static IntIteratorExt generator(IntGenerator generator) {
+        checkNotNull(generator);
+        return new IntIteratorExt() {
+            private final IntRingBuffer yieldedValues = new IntRingBuffer();
+            private long yieldCount = 0L;
+            private boolean closed = false;
+            private final IntYield yield = new IntYield() {
+                @Override
+                public void yield(int value) {
+                    yieldedValues.addLast(value);
+                    yieldCount++;
+                }
+
+                @Override
+                public int yieldN(int[] values, int offset, int count) {
+                    int toYield = Math.min(values.length - offset, count);
+                    if (toYield <= 0) {
+                        return 0;
+                    }
+                    yieldedValues.addAll(values, offset, toYield);
+                    yieldCount += toYield;
+                    return toYield;
+                }
+
+                @Override
+                public long count() {
+                    return yieldCount;
+                }
+
+                /**
+                 * the buffer grows, so yielding never blocks
+                 */
+                @Override
+                public int capacity() {
+                    return closed ? 0 : Integer.MAX_VALUE - yieldedValues.size();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    closed = true;
+                }
+
+                @Override
+                public boolean isClosed() {
+                    return yieldedValues.isEmpty() && closed;
+                }
+            };
+
+            @Override
+            public boolean hasNext() {
+                if (yieldedValues.isEmpty() && !closed) {
+                    generator.yieldNextValues(yield);
+                }
+                return !yieldedValues.isEmpty();
+            }
+
+            @Override
+            public int nextInt() {
+                if (hasNext()) {
+                    return yieldedValues.removeFirst();
+                }
+                throw new NoSuchElementException("next");
+            }
+
+            @Override
+            public int available() {
+                return hasNext() ? yieldedValues.size() : 0;
+            }
+
+            @Override
+            public int nextN(int[] buffer, int offset, int count) {
+                int toGet = Math.min(buffer.length - offset, count);
+                int gotten = 0;
+                while (gotten < toGet && hasNext()) {
+                    gotten += yieldedValues.removeFirstN(buffer, offset + gotten, toGet - gotten);
+                }
+                return gotten;
+            }
+
+            @Override
+            public void close() throws IOException {
+                closed = true;
+            }
+
+            @Override
+            public boolean isClosed() {
+                return closed;
+            }
+        };
+    }
+
+    /**
+     * see Iterators.batchesOf(): arrays of 'batchSize' values (the last one may be shorter), filled with nextN().
+     */
+    public static IteratorExt<int[]> batchesOf(int batchSize, PrimitiveIterator.OfInt iterator) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be > 0, not: " + batchSize);
+        }
+        IntIteratorExt source = iteratorExt(iterator);
+        return Iterators.generator(yield -> {
+            int[] batch = new int[batchSize];
+            int size = 0;
+            int gotten;
+            while (size < batchSize && (gotten = source.nextN(batch, size, batchSize - size)) > 0) {
+                size += gotten;
+            }
+            if (size > 0) {
+                yield.yield(size == batchSize ? batch : Arrays.copyOf(batch, size));
+            }
+        });
+    }
+
+    /**
+     * flattens one level of iterators: iterating the values contained in the provided iterators.
+     */
+    public static IntIteratorExt flatten(Iterator<? extends PrimitiveIterator.OfInt> iterators) {
+        return new IntIteratorExt() {
+            private IntIteratorExt current = null;
+
+            @Override
+            public boolean hasNext() {
+                while ((current == null || !current.hasNext()) && iterators.hasNext()) {
+                    current = iteratorExt(iterators.next());
+                }
+                return current != null && current.hasNext();
+            }
+
+            @Override
+            public int nextInt() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("next");
+                }
+                return current.nextInt();
+            }
+
+            @Override
+            public int nextN(int[] buffer, int offset, int count) {
+                int toGet = Math.min(buffer.length - offset, count);
+                int gotten = 0;
+                while (gotten < toGet && hasNext()) {
+                    gotten += current.nextN(buffer, offset + gotten, toGet - gotten);
+                }
+                return gotten;
+            }
+        };
+    }
+
+    /**
+     * combine the values of two sequences pairwise. The length of the result is equal to the shortest of the input sequences.
+     */
+    public static IntIteratorExt zip(PrimitiveIterator.OfInt iter1, PrimitiveIterator.OfInt iter2, IntBinaryOperator combiner) {
+        checkNotNull(combiner);
+        return new IntIteratorExt() {
+            @Override
+            public boolean hasNext() {
+                return iter1.hasNext() && iter2.hasNext();
+            }
+
+            @Override
+            public int nextInt() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("next");
+                }
+                return combiner.applyAsInt(iter1.nextInt(), iter2.nextInt());
+            }
+        };
+    }
+
+    public static IntStream stream(PrimitiveIterator.OfInt iterator) {
+        return StreamSupport.intStream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false);
+    }
+
+    public static IntIteratorExt background(IntGenerator generator) {
+        return background(generator, BackgroundThreads.defaultExecutor());
+    }
+
+    /**
+     * run the generator in the background, see Iterators.background().
+     * The values are handed over in chunks of int[] at the end of each generator call, or before when a chunk is full,
+     * see PrimitiveBackground. The chunks are given back to the generator's side when consumed, so a running generator
+     * allocates nothing.
+     */
+    public static IntIteratorExt background(IntGenerator generator, Executor executor) {
+        checkNotNull(generator);
+        ChunkYield yield = new ChunkYield();
+        return new ChunkIterator(yield, () -> generator.yieldNextValues(yield), executor);
+    }
+
+    private static final class ChunkYield extends PrimitiveBackground.ChunkYield<int[]> implements IntYield {
+        ChunkYield() {
+            super(int[]::new);
+        }
+
+        @Override
+        public void yield(int value) {
+            PrimitiveChunk<int[]> chunk = chunkWithRoom();
+            chunk.values[chunk.size++] = value;
+            yielded();
+        }
+
+        @Override
+        public int yieldN(int[] values, int offset, int count) {
+            return yieldValues(values, values.length, offset, count);
+        }
+    }
+
+    private static final class ChunkIterator extends PrimitiveBackground.ChunkIterator<int[]> implements IntIteratorExt {
+        ChunkIterator(ChunkYield yield, Runnable generate, Executor executor) {
+            super(yield, generate, executor);
+        }
+
+        @Override
+        public int nextInt() {
+            return currentChunk().values[pos++];
+        }
+
+        @Override
+        public int nextN(int[] buffer, int offset, int count) {
+            return nextValues(buffer, buffer.length, offset, count);
+        }
+    }
+}
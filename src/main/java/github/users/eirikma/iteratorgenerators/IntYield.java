@@ -0,0 +1,80 @@
+package github.users.eirikma.iteratorgenerators;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Yield for int values: the same as Yield, without boxing each value.
+ */
+public interface IntYield extends Closeable {
+
+    /**
+     * yield a value to output from the iterator
+     */
+    void yield(int value);
+
+    /**
+     * @return number of values yielded
+     */
+    long count();
+
+    /**
+     * Yield many values from a buffer, see Yield.yieldN().
+     */
+    default int yieldN(int[] values, int offset, int count) {
+        int yielded = 0;
+        for (int i = offset; i < Math.min(values.length, offset + count); i++) {
+            this.yield(values[i]);
+            yielded++;
+        }
+        return yielded;
+    }
+
+    /**
+     * see Yield.flush()
+     */
+    default void flush() {}
+
+    @Override
+    default void close() throws IOException {}
+
+    boolean isClosed();
+
+    /**
+     * see Yield.capacity()
+     */
+    default int capacity() {
+        return 1;
+    }
+
+    /**
+     * see Yield.tryYield()
+     */
+    default boolean tryYield(int value) {
+        if (capacity() > 0 || isClosed()) {
+            this.yield(value);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * see Yield.yield(value, timeout, unit)
+     */
+    default boolean yield(int value, long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!tryYield(value)) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0L) {
+                return false;
+            }
+            LockSupport.parkNanos(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(1)));
+            if (Thread.currentThread().isInterrupted()) {
+                throw new RuntimeException(new InterruptedException("interrupted waiting for room to yield"));
+            }
+        }
+        return true;
+    }
+}
@@ -5,12 +5,15 @@ import java.io.IOException;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Spliterator;
-import java.util.Spliterators;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Collector;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 public interface IteratorExt<T> extends Iterator<T>, Closeable, Iterable<T> {
 
     @Override
@@ -25,9 +28,12 @@ public interface IteratorExt<T> extends Iterator<T>, Closeable, Iterable<T> {
         }
     }
 
+    /**
+     * splits off arrays of values fetched with nextN(), so that parallel streams scale.
+     */
     @Override
     default Spliterator<T> spliterator() {
-        return Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED);
+        return new IteratorExtSpliterator<T>(this, Spliterator.ORDERED);
     }
 
     /**
@@ -55,7 +61,7 @@ public interface IteratorExt<T> extends Iterator<T>, Closeable, Iterable<T> {
         int toGet = Math.min(buffer.length - offset, count);
         int gotten = 0;
         for (int i = 0; i < toGet && hasNext(); i++) {
-            buffer[i] = next();
+            buffer[offset + i] = next();
             gotten++;
         }
         return gotten;
@@ -85,6 +91,57 @@ public interface IteratorExt<T> extends Iterator<T>, Closeable, Iterable<T> {
     }
 
 
+    /**
+     * the values with the function applied, computed as they are iterated.
+     *
+     * map(), filter(), flatMap(), takeWhile(), limit() and peek() chained one after the other are fused into one loop,
+     * calling hasNext()/next() once per value of this iterator, with no buffers between the stages.
+     * This iterator should not be used directly after chaining stages to it.
+     */
+    default <R> IteratorExt<R> map(Function<? super T, ? extends R> function) {
+        checkNotNull(function);
+        return FusedIterator.of(this).map(function);
+    }
+
+    /**
+     * the values matching the predicate
+     */
+    default IteratorExt<T> filter(Predicate<? super T> predicate) {
+        checkNotNull(predicate);
+        return FusedIterator.of(this).filter(predicate);
+    }
+
+    /**
+     * the values of the iterators the function returns for each value, one after the other
+     */
+    default <R> IteratorExt<R> flatMap(Function<? super T, ? extends Iterator<? extends R>> function) {
+        checkNotNull(function);
+        return FusedIterator.flatMap(this, function);
+    }
+
+    /**
+     * the values up to (not including) the first one not matching the predicate
+     */
+    default IteratorExt<T> takeWhile(Predicate<? super T> predicate) {
+        checkNotNull(predicate);
+        return FusedIterator.of(this).takeWhile(predicate);
+    }
+
+    /**
+     * the first 'maxSize' values. No more values are read from this iterator after those.
+     */
+    default IteratorExt<T> limit(long maxSize) {
+        return FusedIterator.of(this).limit(maxSize);
+    }
+
+    /**
+     * the same values, with the action called on each as it is iterated
+     */
+    default IteratorExt<T> peek(Consumer<? super T> action) {
+        checkNotNull(action);
+        return FusedIterator.of(this).peek(action);
+    }
+
     default <R, A> R collect(Collector<? super T, A, R> collector){
         // code stolen from java stream
         A container = collector.supplier().get();
@@ -0,0 +1,97 @@
+package github.users.eirikma.iteratorgenerators;
+
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over an IteratorExt, splitting off arrays of values fetched with nextN so that parallel streams
+ * can process them on other threads while this spliterator keeps reading from the iterator.
+ *
+ * Like the spliterator in java.util.Spliterators, each split takes 'BATCH_UNIT' more values than the previous one
+ * (arithmetic growth), so small inputs are split too and large ones don't cost one split per few values.
+ * A split also takes at least half of what the iterator reports as available(), which for in-memory iterators
+ * is everything remaining, splitting those in halves like an array spliterator does.
+ *
+ * available() is only a lower bound of the number of values left, so the size estimate stays unknown
+ * (Long.MAX_VALUE) until the iterator is known to be exhausted.
+ *
+ * Values are fetched through Iterators.nextN(), as the arrays are Object[]. Iterators reusing one instance for
+ * all values (SingleStepIterator) are never split: buffering their values would give the same object many times.
+ */
+class IteratorExtSpliterator<T> implements Spliterator<T> {
+
+    static final int BATCH_UNIT = 1 << 10;
+    static final int MAX_BATCH = 1 << 20;
+
+    private final IteratorExt<T> iterator;
+    private final int characteristics;
+    private int batch = 0;
+    private boolean exhausted = false;
+
+    IteratorExtSpliterator(IteratorExt<T> iterator, int characteristics) {
+        this.iterator = iterator;
+        this.characteristics = characteristics & ~(SIZED | SUBSIZED);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (exhausted || !iterator.hasNext()) {
+            exhausted = true;
+            return false;
+        }
+        action.accept(iterator.next());
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEachRemaining(Consumer<? super T> action) {
+        if (exhausted) {
+            return;
+        }
+        T[] buffer = (T[]) new Object[BATCH_UNIT];
+        int n;
+        while ((n = Iterators.nextN(iterator, buffer, 0, buffer.length)) > 0) {
+            for (int i = 0; i < n; i++) {
+                action.accept(buffer[i]);
+                buffer[i] = null;
+            }
+        }
+        exhausted = true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Spliterator<T> trySplit() {
+        if (exhausted || iterator instanceof SingleStepIterator) {
+            return null;
+        }
+        batch = Math.min(batch + BATCH_UNIT, MAX_BATCH);
+        int size = Math.min(Math.max(batch, iterator.available() / 2), MAX_BATCH);
+        T[] values = (T[]) new Object[size];
+        int n = 0;
+        int gotten;
+        while (n < size && (gotten = Iterators.nextN(iterator, values, n, size - n)) > 0) {
+            n += gotten;
+        }
+        if (n == 0) {
+            exhausted = true;
+            return null;
+        }
+        if (n < size) {
+            exhausted = !iterator.hasNext();
+        }
+        return Spliterators.spliterator(values, 0, n, characteristics | SIZED | SUBSIZED);
+    }
+
+    @Override
+    public long estimateSize() {
+        return exhausted ? 0L : Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return characteristics;
+    }
+}
@@ -1,11 +1,19 @@
 package github.users.eirikma.iteratorgenerators;
 
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.BinaryOperator;
 import java.util.function.Function;
@@ -34,30 +42,30 @@ public final class Iterators {
                 new IteratorExt<T>() {
                     @Override
                     public boolean hasNext() {
-                        return false;
+                        return iterator.hasNext();
                     }
 
                     @Override
                     public T next() {
-                        return null;
+                        return iterator.next();
                     }
                 };
     }
 
     public static <T> IteratorExt<T> values(T... values) {
-        Iterator<T> iterator = asList(values).iterator();
         return new IteratorExt<T>() {
             int pos = 0;
             @Override
             public boolean hasNext() {
-                return iterator.hasNext();
+                return pos < values.length;
             }
 
             @Override
             public T next() {
-                T next = iterator.next();
-                pos++;
-                return next;
+                if (pos >= values.length) {
+                    throw new NoSuchElementException("next");
+                }
+                return values[pos++];
             }
 
             @Override
@@ -65,6 +73,17 @@ public final class Iterators {
                 int length = values.length;
                 return length - pos;
             }
+
+            @Override
+            public int nextN(T[] buffer, int offset, int count) {
+                int toGet = Math.min(Math.min(buffer.length - offset, count), values.length - pos);
+                if (toGet <= 0) {
+                    return 0;
+                }
+                System.arraycopy(values, pos, buffer, offset, toGet);
+                pos += toGet;
+                return toGet;
+            }
         };
     }
 
@@ -73,6 +92,82 @@ public final class Iterators {
         return generator(yield -> processor.process(input, yield));
     }
 
+    /**
+     * run the processor on arrays of up to 'batchSize' input values, see BatchProcessor.
+     * A batch is what one nextN() call on the input gives, so with a background() input the batches are
+     * what the producer has handed over so far.
+     *
+     * @param inputType the type of the arrays given to the processor
+     */
+    public static <I, O> IteratorExt<O> processBatches(Iterator<I> input, Class<I> inputType, int batchSize,
+                                                       BatchProcessor<I, O> processor) {
+        checkNotNull(input);
+        Processor<I, O> batches = asProcessor(processor, inputType, batchSize);
+        return generator(yield -> batches.process(input, yield));
+    }
+
+    /**
+     * a Processor reading the input in arrays of up to 'batchSize' values for the BatchProcessor.
+     * Each call processes batches until something is yielded, or the input is done and BatchProcessor.finish() is called.
+     * It keeps its array between calls, so use a new one for each input.
+     * The array is handed to the processor, which may take it as a String[] etc., hence 'inputType'.
+     * Like the other arrays read into here, it is filled through nextN(IteratorExt, ...), see there.
+     *
+     * @param inputType the type of the arrays given to the processor
+     */
+    public static <I, O> Processor<I, O> asProcessor(BatchProcessor<I, O> processor, Class<I> inputType, int batchSize) {
+        checkNotNull(processor);
+        checkNotNull(inputType);
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be > 0, not: " + batchSize);
+        }
+        return new Processor<I, O>() {
+            @SuppressWarnings("unchecked")
+            private final I[] batch = (I[]) Array.newInstance(inputType, batchSize);
+            private Iterator<I> input;
+            private IteratorExt<I> source;
+            private boolean finished = false;
+
+            @Override
+            public void process(Iterator<I> input, Yield<O> output) {
+                if (input != this.input) {
+                    this.input = input;
+                    this.source = iteratorExt(input);
+                }
+                long before = output.count();
+                while (output.count() == before && !finished) {
+                    int count = nextN(source, batch, 0, batch.length);
+                    if (count > 0) {
+                        processor.process(batch, 0, count, output);
+                    } else {
+                        finished = true;
+                        Arrays.fill(batch, null);
+                        processor.finish(output);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * a BatchProcessor running the processor on an iterator over each batch, as many times as it takes to read the batch.
+     * The processor sees one batch at a time, so it can not read ahead past the end of a batch.
+     */
+    public static <I, O> BatchProcessor<I, O> asBatchProcessor(Processor<I, O> processor) {
+        checkNotNull(processor);
+        return (input, offset, count, output) -> {
+            ListIterator<I> batch = asList(input).subList(offset, offset + count).listIterator();
+            while (batch.hasNext()) {
+                int position = batch.nextIndex();
+                long before = output.count();
+                processor.process(batch, output);
+                if (batch.nextIndex() == position && output.count() == before) {
+                    break;
+                }
+            }
+        };
+    }
+
 
     public static <T> IteratorExt<T> generator(Generator<T, Yield<T>> generator) {
         checkNotNull(generator);
@@ -81,6 +176,11 @@ public final class Iterators {
     }
 
 
+    /**
+     * generator that can keep state between calls, see StatefulYield.
+     * The iterator is closed by calling close() on either the iterator or the yield. After that the generator is not called
+     * again, and if the state at that time is Closeable (like a Reader the generator reads from), it is closed as well.
+     */
     public static <T, S> IteratorExt<T> generatorWithState(final S initialState,
                                                         GeneratorWithState<T, S> generator) {
         checkNotNull(generator);
@@ -91,7 +191,7 @@ public final class Iterators {
             E element;
         }
         return new IteratorExt<T>() {
-            private final LinkedList<T> yieldedValues = new LinkedList<T>();
+            private final ObjectRingBuffer<T> yieldedValues = new ObjectRingBuffer<T>();
             private final Holder<S> stateHolder = new Holder<S>(initialState);
             private final Holder<T> lastYield = new Holder<T>(null);
             private long yieldCount = 0L;
@@ -104,6 +204,18 @@ public final class Iterators {
                     lastYield.element = element;
                     yieldCount++;
                 }
+
+                @Override
+                public int yieldN(T[] values, int offset, int count) {
+                    int toYield = Math.min(values.length - offset, count);
+                    if (toYield <= 0) {
+                        return 0;
+                    }
+                    yieldedValues.addAll(values, offset, toYield);
+                    lastYield.element = values[offset + toYield - 1];
+                    yieldCount += toYield;
+                    return toYield;
+                }
                 public S getState() {
                     return stateHolder.element;
                 }
@@ -118,6 +230,14 @@ public final class Iterators {
                     return yieldCount;
                 }
 
+                /**
+                 * the buffer grows, so yielding never blocks
+                 */
+                @Override
+                public int capacity() {
+                    return closed ? 0 : Integer.MAX_VALUE - yieldedValues.size();
+                }
+
                 @Override
                 public void close() throws IOException {
                     closeIterator();
@@ -131,7 +251,7 @@ public final class Iterators {
 
             @Override
             public boolean hasNext() {
-                if (yieldedValues.isEmpty()) {
+                if (yieldedValues.isEmpty() && !closed) {
                     generator.yieldNextValues(yield);
                 }
                 return !yieldedValues.isEmpty();
@@ -151,13 +271,28 @@ public final class Iterators {
                 return hasNext() ? yieldedValues.size() : 0;
             }
 
+            @Override
+            public int nextN(T[] buffer, int offset, int count) {
+                int toGet = Math.min(buffer.length - offset, count);
+                int gotten = 0;
+                while (gotten < toGet && hasNext()) {
+                    gotten += yieldedValues.removeFirstN(buffer, offset + gotten, toGet - gotten);
+                }
+                return gotten;
+            }
+
             @Override
             public void close() throws IOException {
                 closeIterator();
             }
 
-            private void closeIterator() {
-                this.closed = false;
+            private void closeIterator() throws IOException {
+                if (!closed) {
+                    this.closed = true;
+                    if (stateHolder.element instanceof Closeable) {
+                        ((Closeable) stateHolder.element).close();
+                    }
+                }
             }
 
             @Override
@@ -169,18 +304,116 @@ public final class Iterators {
 
 
     public static <T> IteratorExt<List<T>> batchesOf(int batchSize, Iterator<T> iterator) {
-        ArrayList<T> batch = new ArrayList<T>(batchSize);
         return generator((yield -> {
-            while (iterator.hasNext() && batch.size() < batchSize) {
+            ArrayList<T> batch = null;
+            while (iterator.hasNext() && (batch == null || batch.size() < batchSize)) {
+                if (batch == null) {
+                    batch = new ArrayList<T>(batchSize);
+                }
                 batch.add(iterator.next());
             }
-            if (!batch.isEmpty()) {
-                yield.yield(new ArrayList<T>(batch));
-                batch.clear();
+            if (batch != null) {
+                yield.yield(batch);
             }
         }));
     }
 
+    /**
+     * batches of 'batchSize' values (the last one may be smaller), all in the same Batch instance:
+     * the batch is filled with the next values when the consumer moves on to the next batch, so don't keep it.
+     * Nothing is allocated per batch.
+     */
+    public static <T> IteratorExt<Batch<T>> reusedBatchesOf(int batchSize, Iterator<T> iterator) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be > 0, not: " + batchSize);
+        }
+        IteratorExt<T> source = iteratorExt(iterator);
+        Batch<T> batch = new Batch<T>(nextNBuffer(source, batchSize), null);
+        return batches(source, () -> batch);
+    }
+
+    /**
+     * batches of 'batchSize' values (the last one may be smaller) that are handed back with Batch.release() when done with,
+     * for instance by another thread writing them to a database. A new batch is only allocated when all the
+     * released ones are in use. Up to 'poolSize' released batches are kept for reuse.
+     */
+    public static <T> IteratorExt<Batch<T>> pooledBatchesOf(int batchSize, int poolSize, Iterator<T> iterator) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be > 0, not: " + batchSize);
+        }
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be > 0, not: " + poolSize);
+        }
+        BlockingQueue<Batch<T>> pool = new ArrayBlockingQueue<Batch<T>>(poolSize);
+        IteratorExt<T> source = iteratorExt(iterator);
+        return batches(source, () -> {
+            Batch<T> batch = pool.poll();
+            return batch != null ? batch : new Batch<T>(nextNBuffer(source, batchSize), pool);
+        });
+    }
+
+    /**
+     * one batch per nextN(), since reused batches are the same instance.
+     */
+    private static <T> IteratorExt<Batch<T>> batches(IteratorExt<T> source, Supplier<Batch<T>> batches) {
+        return new SingleStepIterator<Batch<T>>() {
+            private Batch<T> ready = null;
+            private boolean done = false;
+
+            @Override
+            public boolean hasNext() {
+                if (ready == null && !done) {
+                    Batch<T> batch = batches.get();
+                    if (batch.fill(source) > 0) {
+                        ready = batch;
+                    } else {
+                        done = true;
+                        batch.release();
+                    }
+                }
+                return ready != null;
+            }
+
+            @Override
+            public Batch<T> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("next");
+                }
+                Batch<T> batch = ready;
+                ready = null;
+                return batch;
+            }
+
+            @Override
+            public void close() throws IOException {
+                done = true;
+                ready = null;
+                source.close();
+            }
+
+            @Override
+            public boolean isClosed() {
+                return done && ready == null;
+            }
+        };
+    }
+
+    public static <T> IteratorExt<List<T>> batchesOf(int batchSize, long maxDelay, TimeUnit unit, Iterator<T> iterator) {
+        return batchesOf(batchSize, maxDelay, unit, iterator, BackgroundThreads.defaultExecutor());
+    }
+
+    /**
+     * batches of up to 'batchSize' values, each handed out when full or 'maxDelay' after its first value arrived,
+     * whichever comes first. The input is read by a task on the executor, see TimedBatches.
+     */
+    public static <T> IteratorExt<List<T>> batchesOf(int batchSize, long maxDelay, TimeUnit unit, Iterator<T> iterator,
+                                                     Executor executor) {
+        checkNotNull(iterator);
+        checkNotNull(unit);
+        checkNotNull(executor);
+        return new TimedBatches<T>(iterator, batchSize, maxDelay, unit, executor);
+    }
+
     /**
      * flattens one level of iterators: iterating the values contained in the provided iterators.
      *
@@ -202,6 +435,65 @@ public final class Iterators {
     }
 
 
+    /**
+     * merge sorted inputs into one sorted sequence as it is iterated, with O(log N) comparisons per value for N inputs.
+     * Equal values come from the inputs in the order they are given.
+     */
+    @SafeVarargs
+    public static <T> IteratorExt<T> mergeSorted(Comparator<? super T> comparator, Iterator<? extends T>... inputs) {
+        // copied rather than passed on with asList(), so the varargs array does not leave this method
+        List<Iterator<? extends T>> sources = new ArrayList<>(inputs.length);
+        for (Iterator<? extends T> input : inputs) {
+            sources.add(input);
+        }
+        return mergeSorted(comparator, sources, 1);
+    }
+
+    /**
+     * mergeSorted() reading each input 'bufferSize' values at a time with nextN(), into an array per input.
+     * nextN() on the result takes values from the next input for as long as they come first, with one comparison per value.
+     */
+    public static <T> IteratorExt<T> mergeSorted(Comparator<? super T> comparator, List<? extends Iterator<? extends T>> inputs,
+                                                 int bufferSize) {
+        checkNotNull(comparator);
+        List<IteratorExt<? extends T>> sources = new ArrayList<>(inputs.size());
+        for (Iterator<? extends T> input : inputs) {
+            sources.add(iteratorExt(checkNotNull(input)));
+        }
+        return new MergeSortedIterator<>(comparator, sources, bufferSize);
+    }
+
+    /**
+     * sorts the values of the iterator, which may be more than fit in memory. See the full version.
+     * The temp files go in java.io.tmpdir, and are written on the default background executor.
+     */
+    public static <T> IteratorExt<T> sorted(Iterator<T> iterator, Comparator<? super T> comparator, long memoryBudget,
+                                            SpillCodec<T> codec) {
+        return sorted(iterator, comparator, memoryBudget, codec,
+                Paths.get(System.getProperty("java.io.tmpdir")), BackgroundThreads.defaultExecutor());
+    }
+
+    /**
+     * external merge sort: the input is read in runs of memoryBudget / 2 values. Each run is sorted and written to a
+     * temp file in 'directory' with the codec, in a task on the executor while the next run is read. The runs are
+     * merged lazily as the result is iterated, at most 64 at a time: with more runs, they are first merged into fewer
+     * (larger) run files. If the input fits in one run, nothing is written.
+     * The input is read at the first call to hasNext() or next(). The sort is stable.
+     *
+     * The temp files are deleted when the iteration is done, or on close(): close the result if it is not read to the end.
+     *
+     * @param memoryBudget the number of values to keep in memory at most (not bytes: the size of a value is not known)
+     */
+    public static <T> IteratorExt<T> sorted(Iterator<T> iterator, Comparator<? super T> comparator, long memoryBudget,
+                                            SpillCodec<T> codec, Path directory, Executor executor) {
+        checkNotNull(comparator);
+        checkNotNull(codec);
+        checkNotNull(directory);
+        checkNotNull(executor);
+        return new ExternalSortIterator<>(iteratorExt(checkNotNull(iterator)), comparator, memoryBudget, codec, directory, executor,
+                ExternalSortIterator.DEFAULT_FAN_IN);
+    }
+
     public static <T> Collection<T> collect(final Iterator<T> iterator) {
         ArrayList<T> retval = new ArrayList<T>();
         while (iterator.hasNext()) {
@@ -211,13 +503,15 @@ public final class Iterators {
     }
 
     public static <T> MarkableIterator<T> markable(Iterator<T> inputSource) {
+        IteratorExt<T> source = iteratorExt(inputSource);
         return new MarkableIterator<T>() {
 
             boolean markIsSet = false;
             int maxReadAhead = 0;
             ArrayList<T> markBuffer = new ArrayList<T>();
+            // items already read from the source once, to be read again after reset()
             ArrayList<T> readBuffer = new ArrayList<T>();
-            Iterator<T> readSource = inputSource;
+            int readPos = 0;
 
             @Override
             public void mark(int maxReadaheadLimit) {
@@ -246,33 +540,71 @@ public final class Iterators {
             }
 
             private void switchToReReadItemsFromMark() {
-                readBuffer.clear();
-                readBuffer.addAll(markBuffer);
-                readSource = readBuffer.iterator();
+                ArrayList<T> reRead = new ArrayList<T>(markBuffer.size() + readBuffer.size() - readPos);
+                reRead.addAll(markBuffer);
+                reRead.addAll(readBuffer.subList(readPos, readBuffer.size()));
+                readBuffer = reRead;
+                readPos = 0;
             }
 
             @Override
             public boolean hasNext() {
-                return readSource.hasNext();
+                return readPos < readBuffer.size() || source.hasNext();
             }
 
             @Override
             public T next() {
                 if (markIsSet && markBuffer.size() == maxReadAhead) {
                     clearMarkIfExists();
-                    readSource = inputSource;
                 }
 
-                T next = readSource.next();
+                T next = readPos < readBuffer.size() ? readBuffer.get(readPos++) : source.next();
+                if (readPos > 0 && readPos == readBuffer.size()) {
+                    readBuffer.clear();
+                    readPos = 0;
+                }
                 if (markIsSet) {
                     markBuffer.add(next);
                 }
                 return next;
             }
 
+            @Override
+            public int nextN(T[] buffer, int offset, int count) {
+                int toGet = Math.min(buffer.length - offset, count);
+                int gotten = 0;
+                while (gotten < toGet && hasNext()) {
+                    if (markIsSet && markBuffer.size() == maxReadAhead) {
+                        clearMarkIfExists();
+                    }
+                    int limit = markIsSet ? Math.min(toGet - gotten, maxReadAhead - markBuffer.size()) : toGet - gotten;
+                    int got;
+                    if (readPos < readBuffer.size()) {
+                        got = Math.min(limit, readBuffer.size() - readPos);
+                        for (int i = 0; i < got; i++) {
+                            buffer[offset + gotten + i] = readBuffer.get(readPos++);
+                        }
+                        if (readPos == readBuffer.size()) {
+                            readBuffer.clear();
+                            readPos = 0;
+                        }
+                    } else {
+                        got = source.nextN(buffer, offset + gotten, limit);
+                        if (got == 0) {
+                            break;
+                        }
+                    }
+                    if (markIsSet) {
+                        markBuffer.addAll(asList(buffer).subList(offset + gotten, offset + gotten + got));
+                    }
+                    gotten += got;
+                }
+                return gotten;
+            }
+
             @Override
             public int available() {
-                return 0;
+                return readBuffer.size() - readPos + source.available();
             }
         };
     }
@@ -287,30 +619,186 @@ public final class Iterators {
         return background(yield -> processor.process(input, yield));
     }
 
+    public static  <I,O> IteratorExt<O> background(Iterator<I> input, Processor<I,O> processor, Executor executor) {
+        return background(yield -> processor.process(input, yield), executor);
+    }
+
     public static  <O> IteratorExt<O> background(Generator<O,Yield<O>> generator) {
-        MultiThreadedObjectPipe<O> pipe = new MultiThreadedObjectPipe<>();
-        Thread thread = new Thread(() -> {
+        return background(generator, BackgroundThreads.defaultExecutor());
+    }
+
+    public static  <O> IteratorExt<O> background(Generator<O,Yield<O>> generator, Executor executor) {
+        return background(generator, executor, SpscObjectPipe.DEFAULT_BUFFER_CAPACITY, WaitStrategy.SPIN_THEN_PARK, 0L, TimeUnit.MILLISECONDS);
+    }
+
+    public static  <O> IteratorExt<O> background(Generator<O,Yield<O>> generator, int bufferCapacity,
+                                                 WaitStrategy waitStrategy, long timeout, TimeUnit unit) {
+        return background(generator, BackgroundThreads.defaultExecutor(), bufferCapacity, waitStrategy, timeout, unit);
+    }
+
+    /**
+     * run the generator in the background, handing values over to the returned iterator through a bounded buffer.
+     * Without an executor, virtual threads are used when the JVM has them, otherwise a pool of daemon threads.
+     *
+     * An exception thrown by the generator is re-thrown (wrapped) from the iterator's hasNext()/next(),
+     * after the values yielded before it have been consumed.
+     * Closing the iterator stops the generator: it is interrupted, and its next yield fails.
+     *
+     * @param executor runs the generator loop. Must run it in another thread than the consumer, or it will block forever.
+     * @param bufferCapacity max number of values yielded but not yet consumed. The generator blocks when the buffer is full.
+     * @param waitStrategy how the producer and consumer threads wait for each other
+     * @param timeout max time either side waits for the other before failing with a TimeoutException (wrapped). 0 means forever.
+     */
+    public static  <O> IteratorExt<O> background(Generator<O,Yield<O>> generator, Executor executor, int bufferCapacity,
+                                                 WaitStrategy waitStrategy, long timeout, TimeUnit unit) {
+        checkNotNull(generator);
+        checkNotNull(executor);
+        checkNotNull(waitStrategy);
+        SpscObjectPipe<O> pipe = new SpscObjectPipe<>(bufferCapacity, waitStrategy, timeout, unit);
+        executor.execute(() -> {
+            pipe.bindProducer(Thread.currentThread());
             Yield<O> yield = pipe.getYieldTarget();
-            while(!yield.isClosed()) {
-                long before = yield.count();
-                generator.yieldNextValues(yield);
-                if (yield.count() == before) {
-                    try {
+            try {
+                while (!yield.isClosed()) {
+                    long before = yield.count();
+                    generator.yieldNextValues(yield);
+                    yield.flush();
+                    if (yield.count() == before) {
                         yield.close();
-                    } catch (IOException e) {
-                        // not going to happen
-                        throw new RuntimeException(e);
                     }
                 }
+            } catch (Throwable e) {
+                pipe.fail(e);
+            } finally {
+                pipe.unbindProducer();
             }
         });
-        thread.setDaemon(true);
-        thread.start();
         return pipe.getIterator();
     }
 
+    /**
+     * measure the consumer side of a pipeline stage: the values taken from the iterator, the time spent waiting for them
+     * and how many the iterator had ready (see StageMetrics). The listener is told when the stage starts and finishes.
+     * Stages that are not wrapped are not measured, and cost nothing extra.
+     *
+     * To see both sides of a background stage, wrap the generator as well:
+     * instrumented("parse", background(instrumented("parse", generator, listener)), listener)
+     */
+    public static <T> IteratorExt<T> instrumented(String name, Iterator<T> iterator, StageListener listener) {
+        checkNotNull(iterator);
+        checkNotNull(listener);
+        return new InstrumentedIterator<>(iteratorExt(iterator), new StageMetrics(name), listener);
+    }
+
+    /**
+     * measure the producer side of a pipeline stage: the values yielded and the time spent in yieldNextValues().
+     * The stage finishes when a call yields nothing, the yield is closed or the generator fails.
+     */
+    public static <T> Generator<T, Yield<T>> instrumented(String name, Generator<T, Yield<T>> generator, StageListener listener) {
+        checkNotNull(generator);
+        checkNotNull(listener);
+        StageMetrics metrics = new StageMetrics(name);
+        return yield -> {
+            if (metrics.start()) {
+                listener.started(metrics);
+            }
+            long before = yield.count();
+            long start = System.nanoTime();
+            boolean done = true;
+            try {
+                generator.yieldNextValues(yield);
+                done = yield.count() == before || yield.isClosed();
+            } finally {
+                metrics.addGeneratorCall(System.nanoTime() - start, yield.count() - before);
+                if (done && metrics.finish()) {
+                    listener.finished(metrics);
+                }
+            }
+        };
+    }
+
+    /**
+     * apply the function to the input values on 'parallelism' worker threads, returning the results in input order.
+     * At most 'windowSize' values are read ahead of the consumer, so memory stays bounded even if one value is slow.
+     * An exception thrown by the function is re-thrown (wrapped) from next().
+     * The workers start at the first hasNext() or next() and run until the input is done: close the iterator to stop
+     * early. An iterator that is dropped after it is used, without being read to the end or closed, keeps its workers.
+     *
+     * @param parallelism number of worker threads
+     * @param windowSize max number of values being mapped or waiting to be consumed. Should be a few times 'parallelism'.
+     */
+    public static <I, O> IteratorExt<O> parallelMap(Iterator<I> input, Function<I, O> function, int parallelism, int windowSize) {
+        return parallelMap(input, function, parallelism, windowSize, BackgroundThreads.defaultExecutor());
+    }
+
+    public static <I, O> IteratorExt<O> parallelMap(Iterator<I> input, Function<I, O> function, int parallelism, int windowSize,
+                                                    Executor executor) {
+        checkNotNull(input);
+        checkNotNull(function);
+        checkNotNull(executor);
+        return new ParallelMapIterator<>(input, function, parallelism, windowSize, true, executor);
+    }
+
+    /**
+     * same as parallelMap, but the results are returned as soon as they are done, not in input order.
+     */
+    public static <I, O> IteratorExt<O> parallelMapUnordered(Iterator<I> input, Function<I, O> function, int parallelism, int windowSize) {
+        return parallelMapUnordered(input, function, parallelism, windowSize, BackgroundThreads.defaultExecutor());
+    }
+
+    public static <I, O> IteratorExt<O> parallelMapUnordered(Iterator<I> input, Function<I, O> function, int parallelism, int windowSize,
+                                                             Executor executor) {
+        checkNotNull(input);
+        checkNotNull(function);
+        checkNotNull(executor);
+        return new ParallelMapIterator<>(input, function, parallelism, windowSize, false, executor);
+    }
+
+    /**
+     * run 'workers' processors in parallel, each getting batches of the input through its own input iterator and
+     * yielding to its own Yield. The output of all processors is merged into the returned iterator, not in input order.
+     * Each processor is finished when it yields no values, like with process(input, processor).
+     *
+     * @param processors creates one processor per worker
+     */
+    public static <I, O> IteratorExt<O> parallelProcess(Iterator<I> input, Supplier<? extends Processor<I, O>> processors, int workers) {
+        return parallelProcess(input, processors, workers, null, BackgroundThreads.defaultExecutor());
+    }
+
+    /**
+     * same as parallelProcess(input, processors, workers), but all values with equal keys are processed by the same worker
+     * (and so by the same processor, in input order), for processors that keep state per key.
+     *
+     * @param partitionKey key of each input value. Values are distributed to workers by the key's hashCode.
+     */
+    public static <I, O> IteratorExt<O> parallelProcess(Iterator<I> input, Supplier<? extends Processor<I, O>> processors, int workers,
+                                                        Function<? super I, ?> partitionKey) {
+        checkNotNull(partitionKey);
+        return parallelProcess(input, processors, workers, partitionKey, BackgroundThreads.defaultExecutor());
+    }
+
+    /**
+     * @param partitionKey null to hand out input batches to whichever worker is ready first
+     * @param executor runs the dispatcher reading input and the workers: needs 'workers' + 1 threads.
+     */
+    public static <I, O> IteratorExt<O> parallelProcess(Iterator<I> input, Supplier<? extends Processor<I, O>> processors, int workers,
+                                                        Function<? super I, ?> partitionKey, Executor executor) {
+        checkNotNull(input);
+        checkNotNull(processors);
+        checkNotNull(executor);
+        return new ParallelProcess<>(input, processors, workers, partitionKey).start(executor);
+    }
+
     public static <T> Stream<T> stream(Iterator<T> iterator) {
-        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, ORDERED | IMMUTABLE), false);
+        return StreamSupport.stream(new IteratorExtSpliterator<T>(iteratorExt(iterator), ORDERED | IMMUTABLE), false);
+    }
+
+    /**
+     * parallel stream of the values from the iterator: batches of values fetched with nextN() are processed
+     * in parallel on the common fork-join pool, while the iterator itself is only read by one thread at a time.
+     */
+    public static <T> Stream<T> parallelStream(Iterator<T> iterator) {
+        return StreamSupport.stream(new IteratorExtSpliterator<T>(iteratorExt(iterator), ORDERED | IMMUTABLE), true);
     }
 
 
@@ -320,6 +808,7 @@ public final class Iterators {
             return (PushBackIterator<T>) source;
         }
 
+        IteratorExt<T> sourceExt = iteratorExt(source);
         return new PushBackIterator<T>() {
             private Stack<T> pushbackStack = new Stack<>();
 
@@ -337,6 +826,21 @@ public final class Iterators {
             public T next() {
                 return (pushbackStack.size() > 0) ? pushbackStack.pop() : source.next();
             }
+
+            @Override
+            public int nextN(T[] buffer, int offset, int count) {
+                int toGet = Math.min(buffer.length - offset, count);
+                int gotten = 0;
+                while (gotten < toGet && pushbackStack.size() > 0) {
+                    buffer[offset + gotten++] = pushbackStack.pop();
+                }
+                return gotten < toGet ? gotten + sourceExt.nextN(buffer, offset + gotten, toGet - gotten) : gotten;
+            }
+
+            @Override
+            public int available() {
+                return pushbackStack.size() + sourceExt.available();
+            }
         };
     }
 
@@ -361,6 +865,136 @@ public final class Iterators {
     }
 
 
+    /**
+     * inner hashJoin().
+     */
+    public static <L, R, K> IteratorExt<Tuple2<L, R>> hashJoin(Iterator<L> left, Iterator<R> right,
+                                                              Function<? super L, ? extends K> leftKey,
+                                                              Function<? super R, ? extends K> rightKey) {
+        return hashJoin(left, right, leftKey, rightKey, JoinType.INNER);
+    }
+
+    /**
+     * join two iterators on equal keys, pairing each left value with the right values having the same key:
+     * all of 'right' is read into a HashMap by key at the first call to hasNext() or next(), and then 'left' is streamed.
+     * Give the smaller side as 'right', it is the one kept in memory.
+     *
+     * The pairs come in the order of the left iterator, and for each left value in the order of the right iterator.
+     * With LEFT_OUTER, left values without a match are paired with null. Null keys match nothing.
+     */
+    public static <L, R, K> IteratorExt<Tuple2<L, R>> hashJoin(Iterator<L> left, Iterator<R> right,
+                                                              Function<? super L, ? extends K> leftKey,
+                                                              Function<? super R, ? extends K> rightKey, JoinType joinType) {
+        checkNotNull(left);
+        checkNotNull(right);
+        checkNotNull(leftKey);
+        checkNotNull(rightKey);
+        checkNotNull(joinType);
+        return Iterators.<Tuple2<L, R>, Map<K, List<R>>>generatorWithState(null, yield -> {
+            Map<K, List<R>> table = yield.getState();
+            if (table == null) {
+                // most keys have one value: a singleton list until there is a second one
+                table = new HashMap<>();
+                while (right.hasNext()) {
+                    R value = right.next();
+                    K key = rightKey.apply(value);
+                    if (key == null) {
+                        continue;
+                    }
+                    List<R> matches = table.get(key);
+                    if (matches == null) {
+                        table.put(key, Collections.singletonList(value));
+                    } else {
+                        if (matches.size() == 1) {
+                            matches = new ArrayList<>(matches);
+                            table.put(key, matches);
+                        }
+                        matches.add(value);
+                    }
+                }
+                yield.setState(table);
+            }
+            while (left.hasNext()) {
+                L value = left.next();
+                K key = leftKey.apply(value);
+                List<R> matches = key == null ? null : table.get(key);
+                if (matches != null) {
+                    for (R match : matches) {
+                        yield.yield(new Tuple2<>(value, match));
+                    }
+                    return;
+                }
+                if (joinType == JoinType.LEFT_OUTER) {
+                    yield.yield(new Tuple2<>(value, null));
+                    return;
+                }
+            }
+        });
+    }
+
+    /**
+     * inner mergeJoin().
+     */
+    public static <L, R, K> IteratorExt<Tuple2<L, R>> mergeJoin(Iterator<L> left, Iterator<R> right,
+                                                               Function<? super L, ? extends K> leftKey,
+                                                               Function<? super R, ? extends K> rightKey,
+                                                               Comparator<? super K> comparator) {
+        return mergeJoin(left, right, leftKey, rightKey, comparator, JoinType.INNER);
+    }
+
+    /**
+     * join two iterators sorted by key, pairing each left value with the right values having the same key.
+     * Both are read once, side by side, and only the right values with the current key are kept in memory.
+     *
+     * The pairs come in the order of the left iterator. With LEFT_OUTER, left values without a match are paired with null.
+     * Keys out of order give missing matches rather than an error.
+     */
+    public static <L, R, K> IteratorExt<Tuple2<L, R>> mergeJoin(Iterator<L> left, Iterator<R> right,
+                                                               Function<? super L, ? extends K> leftKey,
+                                                               Function<? super R, ? extends K> rightKey,
+                                                               Comparator<? super K> comparator, JoinType joinType) {
+        checkNotNull(left);
+        checkNotNull(leftKey);
+        checkNotNull(rightKey);
+        checkNotNull(comparator);
+        checkNotNull(joinType);
+        PushBackIterator<R> rights = pushbackable(checkNotNull(right));
+        // state: the last left key, and the right values having it
+        return Iterators.<Tuple2<L, R>, Tuple2<K, List<R>>>generatorWithState(null, yield -> {
+            Tuple2<K, List<R>> group = yield.getState();
+            while (left.hasNext()) {
+                L value = left.next();
+                K key = leftKey.apply(value);
+                if (group == null || comparator.compare(group.getFirst(), key) != 0) {
+                    List<R> matches = new ArrayList<>();
+                    while (rights.hasNext()) {
+                        R candidate = rights.next();
+                        int c = comparator.compare(rightKey.apply(candidate), key);
+                        if (c > 0) {
+                            rights.pushback(candidate);
+                            break;
+                        }
+                        if (c == 0) {
+                            matches.add(candidate);
+                        }
+                    }
+                    group = new Tuple2<>(key, matches);
+                    yield.setState(group);
+                }
+                if (!group.getSecond().isEmpty()) {
+                    for (R match : group.getSecond()) {
+                        yield.yield(new Tuple2<>(value, match));
+                    }
+                    return;
+                }
+                if (joinType == JoinType.LEFT_OUTER) {
+                    yield.yield(new Tuple2<>(value, null));
+                    return;
+                }
+            }
+        });
+    }
+
     /**
      * invoke code and get return value without checked exceptions
      *
@@ -376,5 +1010,48 @@ public final class Iterators {
         }
     }
 
+    /**
+     * nextN() into an array that may be a plain Object[], for code that can not make an array of the element type.
+     * All library code reading from iterators it did not create goes through here (or uses nextNBuffer()),
+     * rather than asking callers for a Class; only processBatches() needs one, for the arrays its processor gets.
+     * Iterators overriding nextN() for a specific array type (String[] etc.) get a bridge method casting the array,
+     * so those get an array of the type they take, copied over afterwards.
+     */
+    static <T> int nextN(IteratorExt<T> iterator, T[] buffer, int offset, int count) {
+        Class<?> arrayType = NEXT_N_ARRAY_TYPE.get(iterator.getClass());
+        if (arrayType == Object[].class || arrayType.isInstance(buffer)) {
+            return iterator.nextN(buffer, offset, count);
+        }
+        @SuppressWarnings("unchecked")
+        T[] typed = (T[]) Array.newInstance(arrayType.getComponentType(), Math.max(0, Math.min(buffer.length - offset, count)));
+        int n = iterator.nextN(typed, 0, typed.length);
+        System.arraycopy(typed, 0, buffer, offset, n);
+        return n;
+    }
+
+    /**
+     * an array the nextN() of the iterator takes as it is, for code keeping a buffer per iterator.
+     */
+    static Object[] nextNBuffer(IteratorExt<?> iterator, int size) {
+        return (Object[]) Array.newInstance(NEXT_N_ARRAY_TYPE.get(iterator.getClass()).getComponentType(), size);
+    }
+
+    /**
+     * the array type the nextN() of a class takes: Object[] unless overridden for a specific array type.
+     */
+    private static final ClassValue<Class<?>> NEXT_N_ARRAY_TYPE = new ClassValue<Class<?>>() {
+        @Override
+        protected Class<?> computeValue(Class<?> type) {
+            for (Method method : type.getMethods()) {
+                Class<?>[] parameters = method.getParameterTypes();
+                if (method.getName().equals("nextN") && !method.isBridge() && parameters.length == 3
+                        && parameters[0].isArray() && parameters[0] != Object[].class
+                        && parameters[1] == int.class && parameters[2] == int.class) {
+                    return parameters[0];
+                }
+            }
+            return Object[].class;
+        }
+    };
 
 }
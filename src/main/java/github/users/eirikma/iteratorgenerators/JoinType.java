@@ -0,0 +1,17 @@
+package github.users.eirikma.iteratorgenerators;
+
+/**
+ * Which values Iterators.hashJoin() and mergeJoin() give when a value on the left side has no match on the right.
+ */
+public enum JoinType {
+
+    /**
+     * Only pairs of matching values. Left values without a match are dropped.
+     */
+    INNER,
+
+    /**
+     * Left values without a match are given as well, paired with null.
+     */
+    LEFT_OUTER
+}
@@ -0,0 +1,15 @@
+package github.users.eirikma.iteratorgenerators;
+
+/**
+ * Generator of long values: the same as Generator, yielding to a LongYield instead of boxing each value.
+ */
+public interface LongGenerator {
+
+    /**
+     * Produce new value(s) for the iterator to iterate over, see Generator.yieldNextValues().
+     * If no values are yielded, the generator is finished.
+     *
+     * @param yieldTarget - the target containing the yield(long) method that must be called to yield values.
+     */
+    void yieldNextValues(LongYield yieldTarget);
+}
@@ -0,0 +1,148 @@
+package github.users.eirikma.iteratorgenerators;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Growable FIFO buffer of long values backed by a circular array: ObjectRingBuffer without boxing.
+ *
+ * Not thread safe
+ */
+final class LongRingBuffer {
+
+    private final int minCapacity;
+    private final int maxIdleCapacity;
+    private long[] elements;
+    private int mask;
+    private int head = 0;
+    private int size = 0;
+    // see ObjectRingBuffer
+    private int peak = 0;
+    private int quietResets = 0;
+    private int quietPeak = 0;
+
+    LongRingBuffer() {
+        this(ObjectRingBuffer.DEFAULT_MIN_CAPACITY, ObjectRingBuffer.DEFAULT_MAX_IDLE_CAPACITY);
+    }
+
+    LongRingBuffer(int minCapacity, int maxIdleCapacity) {
+        if (minCapacity < 1) {
+            throw new IllegalArgumentException("minCapacity must be > 0, not: " + minCapacity);
+        }
+        this.minCapacity = powerOfTwoAtLeast(minCapacity);
+        this.maxIdleCapacity = Math.max(this.minCapacity, maxIdleCapacity);
+        this.elements = new long[this.minCapacity];
+        this.mask = this.minCapacity - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void addLast(long element) {
+        if (size == elements.length) {
+            grow(size + 1);
+        }
+        elements[(head + size) & mask] = element;
+        size++;
+        if (size > peak) {
+            peak = size;
+        }
+    }
+
+    /**
+     * append 'count' values from 'source', starting at 'offset', using at most two array copies.
+     */
+    void addAll(long[] source, int offset, int count) {
+        if (count <= 0) {
+            return;
+        }
+        if (size + count > elements.length) {
+            grow(size + count);
+        }
+        int tail = (head + size) & mask;
+        int firstPart = Math.min(count, elements.length - tail);
+        System.arraycopy(source, offset, elements, tail, firstPart);
+        System.arraycopy(source, offset + firstPart, elements, 0, count - firstPart);
+        size += count;
+        if (size > peak) {
+            peak = size;
+        }
+    }
+
+    long removeFirst() {
+        if (size == 0) {
+            throw new NoSuchElementException("removeFirst");
+        }
+        long element = elements[head];
+        head = (head + 1) & mask;
+        size--;
+        if (size == 0) {
+            reset();
+        }
+        return element;
+    }
+
+    /**
+     * move up to 'count' values into 'target' starting at 'offset', using at most two array copies.
+     *
+     * @return number of values moved
+     */
+    int removeFirstN(long[] target, int offset, int count) {
+        int toMove = Math.min(size, count);
+        if (toMove <= 0) {
+            return 0;
+        }
+        int firstPart = Math.min(toMove, elements.length - head);
+        System.arraycopy(elements, head, target, offset, firstPart);
+        System.arraycopy(elements, 0, target, offset + firstPart, toMove - firstPart);
+        head = (head + toMove) & mask;
+        size -= toMove;
+        if (size == 0) {
+            reset();
+        }
+        return toMove;
+    }
+
+    private void reset() {
+        head = 0;
+        if (elements.length > maxIdleCapacity) {
+            if (peak < elements.length / 4) {
+                quietPeak = Math.max(quietPeak, peak);
+                if (++quietResets >= ObjectRingBuffer.SHRINK_AFTER) {
+                    int capacity = Math.max(minCapacity, powerOfTwoAtLeast(Math.max(1, quietPeak)));
+                    elements = new long[capacity];
+                    mask = capacity - 1;
+                    quietResets = 0;
+                    quietPeak = 0;
+                }
+            } else {
+                quietResets = 0;
+                quietPeak = 0;
+            }
+        }
+        peak = 0;
+    }
+
+    private void grow(int required) {
+        int newCapacity = powerOfTwoAtLeast(required);
+        long[] newElements = new long[newCapacity];
+        int firstPart = Math.min(size, elements.length - head);
+        System.arraycopy(elements, head, newElements, 0, firstPart);
+        System.arraycopy(elements, 0, newElements, firstPart, size - firstPart);
+        elements = newElements;
+        mask = newCapacity - 1;
+        head = 0;
+    }
+
+    private static int powerOfTwoAtLeast(int value) {
+        if (value > (1 << 30)) {
+            throw new IllegalStateException("buffer too large: " + value);
+        }
+        int highest = Integer.highestOneBit(value);
+        return highest == value ? value : highest << 1;
+    }
+}
@@ -0,0 +1,209 @@
+package github.users.eirikma.iteratorgenerators;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A row of a memory mapped csv file, see CsvReader.iterateMapped().
+ *
+ * This is a view of the current row only: it holds the offsets of the fields in the mapped file, and the same
+ * instance is returned for every row, pointing at the next one. A field is decoded to a String when it is read
+ * with get(), so columns that are never read cost nothing more than finding where they are.
+ * To keep a row after moving on to the next, copy it with toRow(). For the same reason the rows must be used
+ * strictly one after the other: not collected, and not processed in parallel (like in a parallel stream).
+ *
+ * Not thread safe
+ */
+public final class MappedCsvRow {
+
+    private static final byte QUOTE = '"';
+
+    private final CsvSchema schema;
+    private final Charset charset;
+    private ByteBuffer bytes;
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private boolean[] quoted = new boolean[16];
+    private int fieldCount = 0;
+    private int significantFields = 0;
+    private byte[] scratch = new byte[256];
+
+    MappedCsvRow(CsvSchema schema, Charset charset) {
+        this.schema = schema;
+        this.charset = charset;
+    }
+
+    /**
+     * number of fields in this row, which may be more or less than the number of field names.
+     */
+    public int size() {
+        return fieldCount;
+    }
+
+    /**
+     * @return the value of the field, or null if the row has fewer fields
+     */
+    public String get(int column) {
+        if (column < 0 || column >= fieldCount) {
+            return null;
+        }
+        int start = starts[column];
+        int length = ends[column] - start;
+        if (length > scratch.length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        ByteBuffer view = bytes;
+        if (!quoted[column]) {
+            for (int i = 0; i < length; i++) {
+                scratch[i] = view.get(start + i);
+            }
+            return new String(scratch, 0, length, charset);
+        }
+        // same rule as CsvTokenizer: without the enclosing quotes, "" replaced by ", chars after the closing quote kept
+        int n = 0;
+        boolean inQuotes = false;
+        for (int i = start; i < start + length; i++) {
+            byte c = view.get(i);
+            if (inQuotes) {
+                if (c == QUOTE) {
+                    inQuotes = false;
+                } else {
+                    scratch[n++] = c;
+                }
+            } else if (c == QUOTE && (i == start || view.get(i - 1) == QUOTE)) {
+                if (i != start) {
+                    scratch[n++] = QUOTE;
+                }
+                inQuotes = true;
+            } else {
+                scratch[n++] = c;
+            }
+        }
+        return new String(scratch, 0, n, charset);
+    }
+
+    /**
+     * @return the value of the named field, or null if there is no such field (in the header or in this row)
+     */
+    public String get(String fieldName) {
+        return get(schema.indexOf(fieldName));
+    }
+
+    /**
+     * parsed from the mapped bytes, without decoding a String first (except for quoted and unusual values).
+     *
+     * @throws NumberFormatException if the field is missing or not a long
+     */
+    public long getLong(int column) {
+        if (column >= 0 && column < fieldCount && !quoted[column]) {
+            ByteBuffer view = bytes;
+            int i = starts[column];
+            int end = ends[column];
+            boolean negative = false;
+            if (i < end && (view.get(i) == '-' || view.get(i) == '+')) {
+                negative = view.get(i) == '-';
+                i++;
+            }
+            // up to 18 digits can't overflow
+            if (i < end && end - i <= 18) {
+                long value = 0L;
+                for (; i < end; i++) {
+                    int digit = view.get(i) - '0';
+                    if (digit < 0 || digit > 9) {
+                        break;
+                    }
+                    value = value * 10 + digit;
+                }
+                if (i == end) {
+                    return negative ? -value : value;
+                }
+            }
+        }
+        return Long.parseLong(get(column));
+    }
+
+    public long getLong(String fieldName) {
+        return getLong(schema.indexOf(fieldName));
+    }
+
+    /**
+     * @throws NumberFormatException if the field is missing or not an int
+     */
+    public int getInt(int column) {
+        long value = getLong(column);
+        return (int) value == value ? (int) value : Integer.parseInt(get(column));
+    }
+
+    public int getInt(String fieldName) {
+        return getInt(schema.indexOf(fieldName));
+    }
+
+    /**
+     * @throws NumberFormatException if the field is not a double
+     * @throws NullPointerException if the field is missing
+     */
+    public double getDouble(int column) {
+        return Double.parseDouble(get(column));
+    }
+
+    public double getDouble(String fieldName) {
+        return getDouble(schema.indexOf(fieldName));
+    }
+
+    public List<String> getFieldNames() {
+        return schema.getFieldNames();
+    }
+
+    public CsvSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * a copy of this row, the same as CsvReader.iterateRows() returns.
+     */
+    public CsvRow toRow() {
+        String[] values = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            values[i] = get(i);
+        }
+        return new CsvRow(schema, values);
+    }
+
+    @Override
+    public String toString() {
+        return toRow().toString();
+    }
+
+    void startRecord(ByteBuffer bytes) {
+        this.bytes = bytes;
+        fieldCount = 0;
+        significantFields = 0;
+    }
+
+    void addField(int start, int end, boolean quoted) {
+        if (fieldCount == starts.length) {
+            int length = fieldCount * 2;
+            starts = Arrays.copyOf(starts, length);
+            ends = Arrays.copyOf(ends, length);
+            this.quoted = Arrays.copyOf(this.quoted, length);
+        }
+        starts[fieldCount] = start;
+        ends[fieldCount] = end;
+        this.quoted[fieldCount] = quoted;
+        fieldCount++;
+        if (quoted || end > start) {
+            significantFields = fieldCount;
+        }
+    }
+
+    /**
+     * drops trailing empty fields, like CsvTokenizer.
+     */
+    void endRecord() {
+        if (fieldCount > 1) {
+            fieldCount = significantFields;
+        }
+    }
+}
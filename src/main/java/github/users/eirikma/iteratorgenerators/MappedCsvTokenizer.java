@@ -0,0 +1,237 @@
+package github.users.eirikma.iteratorgenerators;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The byte level twin of CsvTokenizer, for files mapped into memory with FileChannel.map: same rules for quotes,
+ * line endings and trailing empty fields, but a record is only read as field offsets into the mapped bytes
+ * (see MappedCsvRow), nothing is copied or decoded.
+ *
+ * Only the records starting in [start, end) of the file are read (the last one may continue after 'end'),
+ * so that several tokenizers can share one file. The file is mapped in windows of at most 'windowSize' bytes,
+ * since a mapping can't be larger than 2GB; a window that ends in the middle of a record is mapped again
+ * from the start of that record.
+ *
+ * Not thread safe
+ */
+final class MappedCsvTokenizer implements Closeable {
+
+    static final int DEFAULT_WINDOW_SIZE = 1 << 28;
+    private static final byte QUOTE = '"';
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final long end;
+    private final boolean closeChannel;
+    private int windowSize;
+    private ByteBuffer window = ByteBuffer.allocate(0);
+    private long windowStart;
+    private int windowLimit = 0;
+    private int pos = 0;
+    private boolean skipLineFeed = false;
+    private byte separator = ',';
+
+    MappedCsvTokenizer(FileChannel channel, long start, long end, int windowSize, boolean closeChannel) throws IOException {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be > 0, not: " + windowSize);
+        }
+        this.channel = channel;
+        this.fileSize = channel.size();
+        this.end = Math.min(end, fileSize);
+        this.windowSize = windowSize;
+        this.closeChannel = closeChannel;
+        this.windowStart = start;
+        if (start < this.end) {
+            map(start);
+        }
+    }
+
+    void setSeparator(byte separator) {
+        if (separator == QUOTE || separator == '\n' || separator == '\r') {
+            throw new IllegalArgumentException("invalid separator: " + separator);
+        }
+        this.separator = separator;
+    }
+
+    byte getSeparator() {
+        return separator;
+    }
+
+    /**
+     * position in the file of the next record.
+     */
+    long position() {
+        return windowStart + pos;
+    }
+
+    /**
+     * find the candidate used most often (outside quotes) in the first line, without consuming it.
+     * Only the first window is looked at.
+     *
+     * @return the most used candidate, or the first candidate if none of them are used.
+     */
+    byte detectSeparator(byte[] candidates) {
+        int[] counts = new int[candidates.length];
+        boolean inQuotes = false;
+        for (int i = pos; i < windowLimit; i++) {
+            byte c = window.get(i);
+            if (c == QUOTE) {
+                inQuotes = !inQuotes;
+            } else if (!inQuotes && (c == '\n' || c == '\r')) {
+                break;
+            } else if (!inQuotes) {
+                for (int j = 0; j < candidates.length; j++) {
+                    if (c == candidates[j]) {
+                        counts[j]++;
+                    }
+                }
+            }
+        }
+        int best = 0;
+        for (int j = 1; j < candidates.length; j++) {
+            if (counts[j] > counts[best]) {
+                best = j;
+            }
+        }
+        return candidates[best];
+    }
+
+    /**
+     * point 'row' at the fields of the next record.
+     *
+     * @return false if there are no more records (in this tokenizer's part of the file).
+     */
+    boolean readRecord(MappedCsvRow row) throws IOException {
+        skipPendingLineFeed();
+        while (true) {
+            if (position() >= end || !ensureAvailable()) {
+                return false;
+            }
+            if (scanRecord(row)) {
+                return true;
+            }
+            // the window ended in the middle of the record: map again from the start of it
+            if (pos == 0) {
+                if (windowSize == Integer.MAX_VALUE) {
+                    throw new IllegalStateException("record longer than " + Integer.MAX_VALUE + " bytes at: " + position());
+                }
+                windowSize = (int) Math.min(Integer.MAX_VALUE, windowSize * 2L);
+            }
+            map(position());
+        }
+    }
+
+    /**
+     * @return false if the window ends before the record does (and the file doesn't).
+     */
+    private boolean scanRecord(MappedCsvRow row) {
+        ByteBuffer bytes = window;
+        int limit = windowLimit;
+        boolean lastWindow = windowStart + limit >= fileSize;
+        row.startRecord(bytes);
+        int fieldStart = pos;
+        int i = pos;
+        boolean quoted = false;
+        boolean inQuotes = false;
+        while (true) {
+            if (i >= limit) {
+                if (!lastWindow) {
+                    return false;
+                }
+                // end of input ends the last record, even inside quotes
+                row.addField(fieldStart, i, quoted);
+                pos = i;
+                break;
+            }
+            byte c = bytes.get(i);
+            if (inQuotes) {
+                if (c == QUOTE) {
+                    // either the closing quote or the first half of an escaped quote: the next byte decides, see below
+                    inQuotes = false;
+                }
+                i++;
+            } else if (c == separator) {
+                row.addField(fieldStart, i, quoted);
+                i++;
+                fieldStart = i;
+                quoted = false;
+            } else if (c == '\n' || c == '\r') {
+                row.addField(fieldStart, i, quoted);
+                skipLineFeed = c == '\r';
+                pos = i + 1;
+                break;
+            } else if (c == QUOTE && (i == fieldStart || (quoted && bytes.get(i - 1) == QUOTE))) {
+                // opening quote, or the second half of an escaped quote (""): back inside quotes
+                quoted = true;
+                inQuotes = true;
+                i++;
+            } else {
+                i++;
+            }
+        }
+        row.endRecord();
+        return true;
+    }
+
+    /**
+     * position in the file of the next record, after the \n of a record that ended with \r\n.
+     */
+    long recordPosition() throws IOException {
+        skipPendingLineFeed();
+        return position();
+    }
+
+    /**
+     * move to the start of the first record after the next line break outside quotes, for starting in the middle of a file.
+     *
+     * @param inQuotes whether the current position is inside quotes
+     */
+    void skipPastLineBreak(boolean inQuotes) throws IOException {
+        while (ensureAvailable()) {
+            byte c = window.get(pos++);
+            if (c == QUOTE) {
+                inQuotes = !inQuotes;
+            } else if (!inQuotes && (c == '\n' || c == '\r')) {
+                skipLineFeed = c == '\r';
+                return;
+            }
+        }
+    }
+
+    private void skipPendingLineFeed() throws IOException {
+        if (skipLineFeed) {
+            if (ensureAvailable() && window.get(pos) == '\n') {
+                pos++;
+            }
+            skipLineFeed = false;
+        }
+    }
+
+    private boolean ensureAvailable() throws IOException {
+        if (pos >= windowLimit && position() < fileSize) {
+            map(position());
+        }
+        return pos < windowLimit;
+    }
+
+    private void map(long position) throws IOException {
+        long size = Math.min(windowSize, fileSize - position);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        windowStart = position;
+        windowLimit = (int) size;
+        pos = 0;
+    }
+
+    /**
+     * closes the file if this tokenizer owns it. The mapped windows are released when garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closeChannel) {
+            channel.close();
+        }
+    }
+}
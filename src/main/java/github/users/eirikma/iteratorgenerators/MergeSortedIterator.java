@@ -0,0 +1,233 @@
+package github.users.eirikma.iteratorgenerators;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Merges sorted inputs into one sorted sequence, see Iterators.mergeSorted().
+ *
+ * The inputs are kept in a binary heap ordered by their next value, so each value costs O(log N) comparisons for
+ * N inputs (fewer when the same input keeps having the smallest value). Each input is read 'bufferSize' values at a time
+ * with nextN() into an array of its own.
+ * With a bufferSize of 1, the inputs are read with next() instead.
+ * Equal values are taken from the input listed first, so the merge is stable.
+ *
+ * Not thread safe
+ */
+class MergeSortedIterator<T> implements IteratorExt<T> {
+
+    private final Comparator<? super T> comparator;
+    private final List<IteratorExt<? extends T>> inputs;
+    private final Object[][] buffers;
+    private final int[] positions;
+    private final int[] limits;
+    // input indexes, the input with the smallest next value first
+    private final int[] heap;
+    private int heapSize = 0;
+    private boolean started = false;
+    private boolean closed = false;
+
+    MergeSortedIterator(Comparator<? super T> comparator, List<? extends IteratorExt<? extends T>> inputs, int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("bufferSize must be > 0, not: " + bufferSize);
+        }
+        this.comparator = comparator;
+        this.inputs = new ArrayList<>(inputs);
+        this.buffers = new Object[this.inputs.size()][];
+        for (int input = 0; input < this.inputs.size(); input++) {
+            buffers[input] = Iterators.nextNBuffer(this.inputs.get(input), bufferSize);
+        }
+        this.positions = new int[this.inputs.size()];
+        this.limits = new int[this.inputs.size()];
+        this.heap = new int[this.inputs.size()];
+    }
+
+    private void start() {
+        started = true;
+        for (int input = 0; input < inputs.size(); input++) {
+            if (fill(input)) {
+                heap[heapSize] = input;
+                siftUp(heapSize++);
+            }
+        }
+    }
+
+    /**
+     * @return false if the input is done
+     */
+    @SuppressWarnings("unchecked")
+    private boolean fill(int input) {
+        IteratorExt<T> source = (IteratorExt<T>) inputs.get(input);
+        Object[] buffer = buffers[input];
+        positions[input] = 0;
+        if (buffer.length == 1) {
+            boolean hasNext = source.hasNext();
+            if (hasNext) {
+                buffer[0] = source.next();
+            }
+            limits[input] = hasNext ? 1 : 0;
+        } else {
+            limits[input] = Iterators.nextN(source, (T[]) buffer, 0, buffer.length);
+        }
+        return limits[input] > 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T head(int input) {
+        return (T) buffers[input][positions[input]];
+    }
+
+    /**
+     * is input a ahead of input b?
+     */
+    private boolean less(int a, int b) {
+        return before(head(a), a, head(b), b);
+    }
+
+    private void siftUp(int index) {
+        int input = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!less(input, heap[parent])) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = input;
+    }
+
+    private void siftDown(int index) {
+        int input = heap[index];
+        int half = heapSize >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < heapSize && less(heap[right], heap[child])) {
+                child = right;
+            }
+            if (!less(heap[child], input)) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = input;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!started) {
+            start();
+        }
+        return heapSize > 0;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("next");
+        }
+        int input = heap[0];
+        T value = head(input);
+        buffers[input][positions[input]++] = null;
+        if (positions[input] < limits[input] || fill(input)) {
+            siftDown(0);
+        } else {
+            heap[0] = heap[--heapSize];
+            if (heapSize > 0) {
+                siftDown(0);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * takes a run of values from the input that is next, for as long as they come before the next value of the
+     * input after it, with one comparison per value. When only one input is left, its buffer is copied as it is.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public int nextN(T[] buffer, int offset, int count) {
+        int toGet = Math.min(buffer.length - offset, count);
+        int gotten = 0;
+        while (gotten < toGet && hasNext()) {
+            int input = heap[0];
+            Object[] values = buffers[input];
+            int position = positions[input];
+            int end = Math.min(limits[input], position + toGet - gotten);
+            if (heapSize == 1) {
+                System.arraycopy(values, position, buffer, offset + gotten, end - position);
+                Arrays.fill(values, position, end, null);
+                gotten += end - position;
+                position = end;
+            } else {
+                int second = heapSize > 2 && less(heap[2], heap[1]) ? heap[2] : heap[1];
+                T secondValue = head(second);
+                do {
+                    buffer[offset + gotten++] = (T) values[position];
+                    values[position++] = null;
+                } while (position < end && before((T) values[position], input, secondValue, second));
+            }
+            positions[input] = position;
+            if (position < limits[input] || fill(input)) {
+                siftDown(0);
+            } else {
+                heap[0] = heap[--heapSize];
+                if (heapSize > 0) {
+                    siftDown(0);
+                }
+            }
+        }
+        return gotten;
+    }
+
+    /**
+     * does 'value' from input a come before 'other' from input b?
+     */
+    private boolean before(T value, int a, T other, int b) {
+        int c = comparator.compare(value, other);
+        return c < 0 || (c == 0 && a < b);
+    }
+
+    /**
+     * the buffered values of the input that is next, when it is the only one left
+     */
+    @Override
+    public int available() {
+        if (!started || heapSize == 0) {
+            return 0;
+        }
+        return heapSize == 1 ? limits[heap[0]] - positions[heap[0]] : 1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        started = true;
+        heapSize = 0;
+        IOException failure = null;
+        for (IteratorExt<? extends T> input : inputs) {
+            try {
+                input.close();
+            } catch (IOException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed || !hasNext();
+    }
+}
@@ -2,56 +2,157 @@ package github.users.eirikma.iteratorgenerators;
 
 import java.io.IOException;
 import java.util.NoSuchElementException;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Not thread safe
+ * Pipe between producer thread(s) (using the Yield) and one consumer thread (using the Iterator).
+ * Values are kept in a bounded buffer guarded by a lock; the waiting side is woken up by a condition signal
+ * when values are yielded, consumed or the pipe is closed.
+ *
+ * The yield may be shared by several producer threads. Each yield() call is atomic, but yieldN() lets go of the lock
+ * while it waits for room, so values from other producers may come between the parts of a large yieldN().
+ * The iterator must be used from one thread only.
  */
 class MultiThreadedObjectPipe<T> implements ObjectPipe<T> {
 
-    private final BlockingQueue<T> buffer;
-    private final AtomicBoolean closed = new AtomicBoolean(false);
+    static final int DEFAULT_BUFFER_CAPACITY = 5000;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final ObjectRingBuffer<T> buffer = new ObjectRingBuffer<T>();
+    private final int bufferCapacity;
+    private final WaitStrategy waitStrategy;
+    private final long timeoutNanos;
+    // mirror of buffer.size(), readable without taking the lock
+    private volatile int size = 0;
+    private volatile boolean closed = false;
+    // error thrown by a producer, re-thrown to the consumer once the values yielded before it are consumed
+    private volatile Throwable failure;
+    // consumer side only
+    private boolean consumerClosed = false;
     private volatile long yieldCount = 0L;
     private Yield<T> yield;
     private IteratorExt<T> iterator;
 
     MultiThreadedObjectPipe() {
-        this(50000);
+        this(DEFAULT_BUFFER_CAPACITY);
     }
+
     MultiThreadedObjectPipe(int bufferCapacity) {
+        this(bufferCapacity, WaitStrategy.SPIN_THEN_PARK, 0L, TimeUnit.NANOSECONDS);
+    }
 
-        buffer = new LinkedBlockingQueue<T>(5000);
+    /**
+     * @param bufferCapacity max number of values yielded but not yet consumed
+     * @param waitStrategy   how producer and consumer wait for each other
+     * @param timeout        max time to wait for the other thread, 0 means wait forever
+     */
+    MultiThreadedObjectPipe(int bufferCapacity, WaitStrategy waitStrategy, long timeout, TimeUnit unit) {
+        if (bufferCapacity < 1) {
+            throw new IllegalArgumentException("bufferCapacity must be > 0, not: " + bufferCapacity);
+        }
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout must be >= 0, not: " + timeout);
+        }
+        this.bufferCapacity = bufferCapacity;
+        this.waitStrategy = waitStrategy;
+        this.timeoutNanos = unit.toNanos(timeout);
 
         yield = new Yield<T>() {
             @Override
             public void yield(T value) {
-                yieldCount += 1;
                 if (isClosed()) {
                     throw new RuntimeException("closed");
                 }
+                awaitSpace();
+                lock.lock();
+                try {
+                    awaitSpaceLocked();
+                    append(value);
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            @Override
+            public boolean tryYield(T value) {
+                return this.yield(value, 0L, TimeUnit.NANOSECONDS);
+            }
+
+            /**
+             * waits for room like yield() does, but for at most 'timeout' instead of the pipe's timeout.
+             */
+            @Override
+            public boolean yield(T value, long timeout, TimeUnit unit) {
+                if (isClosed()) {
+                    throw new RuntimeException("closed");
+                }
+                long nanos = unit.toNanos(timeout);
+                if (nanos > 0L) {
+                    awaitSpace();
+                }
+                lock.lock();
                 try {
-                    buffer.put(value);
-                } catch (InterruptedException e) {
-                    throw new RuntimeException(e);
+                    if (!awaitSpaceLocked(nanos)) {
+                        return false;
+                    }
+                    append(value);
+                    return true;
+                } finally {
+                    lock.unlock();
                 }
             }
 
+            @Override
+            public int yieldN(T[] values, int offset, int count) {
+                if (isClosed()) {
+                    throw new RuntimeException("closed");
+                }
+                int toYield = Math.max(0, Math.min(values.length - offset, count));
+                int yielded = 0;
+                while (yielded < toYield) {
+                    awaitSpace();
+                    lock.lock();
+                    try {
+                        awaitSpaceLocked();
+                        int n = Math.min(toYield - yielded, bufferCapacity - buffer.size());
+                        buffer.addAll(values, offset + yielded, n);
+                        size = buffer.size();
+                        yieldCount += n;
+                        yielded += n;
+                        notEmpty.signal();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                return yielded;
+            }
+
             @Override
             public long count() {
                 return yieldCount;
             }
 
+            /**
+             * free space in the buffer. Other producers sharing the yield may take it first.
+             */
+            @Override
+            public int capacity() {
+                return closed ? 0 : Math.max(0, bufferCapacity - size);
+            }
+
             @Override
             public boolean isClosed() {
-                return closed.get();
+                return closed;
             }
 
             @Override
             public void close() throws IOException {
-                closed.set(true);;
+                closePipe();
             }
         };
 
@@ -59,42 +160,206 @@ class MultiThreadedObjectPipe<T> implements ObjectPipe<T> {
 
             @Override
             public int available() {
-                return buffer.size();
+                return consumerClosed ? 0 : size;
             }
 
             @Override
             public boolean hasNext() {
-                 if (buffer.size() > 0 ) {
+                if (consumerClosed) {
+                    return false;
+                }
+                if (size > 0) {
                     return true;
                 }
-                // wait for some outcome from the other thread.
-                while (!closed.get() && buffer.size() <= 0) {
-                     Thread.yield();
+                if (waitStrategy == WaitStrategy.SPIN_THEN_PARK && spinUntil(false) && size > 0) {
+                    return true;
+                }
+                lock.lock();
+                try {
+                    long nanos = timeoutNanos;
+                    while (buffer.isEmpty() && !closed) {
+                        nanos = await(notEmpty, nanos, "waiting for values to be yielded");
+                    }
+                    if (buffer.isEmpty() && failure != null) {
+                        throw new RuntimeException("producer failed", failure);
+                    }
+                    return !buffer.isEmpty();
+                } finally {
+                    lock.unlock();
                 }
-                return buffer.size() > 0;
             }
 
             @Override
             public T next() {
-                if (hasNext() && !isClosed()) {
-                    try {
-                        T value = null;
-                        while (value == null && !isClosed()) {
-                            value = buffer.poll(10, TimeUnit.MILLISECONDS);
-                        }
-                        return value;
-                    } catch (InterruptedException e) {
-                        closed.set(true);
-                        throw new RuntimeException(e);
-                    }
+                if (!hasNext()) {
+                    throw new NoSuchElementException("next");
+                }
+                lock.lock();
+                try {
+                    T value = buffer.removeFirst();
+                    size = buffer.size();
+                    notFull.signal();
+                    return value;
+                } finally {
+                    lock.unlock();
                 }
-                throw new NoSuchElementException("next");
+            }
+
+            /**
+             * like InputStream.read(buffer, offset, count): waits for at least one item,
+             * then takes whatever is already queued (up to 'count') under one lock acquisition.
+             */
+            @Override
+            public int nextN(T[] target, int offset, int count) {
+                int toGet = Math.min(target.length - offset, count);
+                if (toGet <= 0 || !hasNext()) {
+                    return 0;
+                }
+                lock.lock();
+                try {
+                    int gotten = buffer.removeFirstN(target, offset, toGet);
+                    size = buffer.size();
+                    notFull.signal();
+                    return gotten;
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            /**
+             * stop consuming: producers fail on their next yield.
+             */
+            @Override
+            public void close() throws IOException {
+                consumerClosed = true;
+                closePipe();
+            }
+
+            @Override
+            public boolean isClosed() {
+                return consumerClosed || (closed && size == 0);
             }
         };
     }
 
+    /**
+     * close the pipe and hand the error over to the consumer.
+     * Ignored if the pipe is already closed, since then the error is most likely caused by yielding to a closed pipe.
+     */
+    void fail(Throwable error) {
+        lock.lock();
+        try {
+            if (!closed) {
+                failure = error;
+                closePipe();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void closePipe() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * producer side, before taking the lock: spin a while if there is no room, when so configured.
+     */
+    private void awaitSpace() {
+        if (size >= bufferCapacity && waitStrategy == WaitStrategy.SPIN_THEN_PARK) {
+            spinUntil(true);
+        }
+    }
+
+    private void awaitSpaceLocked() {
+        long nanos = timeoutNanos;
+        while (buffer.size() >= bufferCapacity && !closed) {
+            nanos = await(notFull, nanos, "waiting for values to be consumed");
+        }
+        if (closed) {
+            throw new RuntimeException("closed");
+        }
+    }
+
+    /**
+     * wait at most 'nanos' for room, with the lock held.
+     *
+     * @return false if there is still no room
+     */
+    private boolean awaitSpaceLocked(long nanos) {
+        try {
+            while (buffer.size() >= bufferCapacity && !closed) {
+                if (nanos <= 0L) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        if (closed) {
+            throw new RuntimeException("closed");
+        }
+        return true;
+    }
+
+    /**
+     * add a value, with the lock held and room in the buffer.
+     */
+    private void append(T value) {
+        buffer.addLast(value);
+        size = buffer.size();
+        yieldCount += 1;
+        notEmpty.signal();
+    }
+
+    /**
+     * busy-spin, then Thread.yield() for a while, until the buffer has room (producer) or values (consumer), or the pipe is closed.
+     *
+     * @return true if the condition was met while spinning.
+     */
+    private boolean spinUntil(boolean space) {
+        for (int i = 0; i < WaitStrategy.SPIN_TRIES + WaitStrategy.YIELD_TRIES; i++) {
+            if (closed || (space ? size < bufferCapacity : size > 0)) {
+                return true;
+            }
+            if (i >= WaitStrategy.SPIN_TRIES) {
+                Thread.yield();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return remaining nanos of the timeout (may be <= 0 when the time is up), or 0 if there is no timeout.
+     */
+    private long await(Condition condition, long nanos, String waitingFor) {
+        try {
+            if (timeoutNanos == 0L) {
+                condition.await();
+                return 0L;
+            }
+            if (nanos <= 0L) {
+                throw new RuntimeException(new TimeoutException("timed out " + waitingFor));
+            }
+            return condition.awaitNanos(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
     public Yield<T> getYieldTarget() {
         return yield;
     }
+
     public IteratorExt<T> getIterator() { return iterator;}
 }
@@ -0,0 +1,172 @@
+package github.users.eirikma.iteratorgenerators;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Growable FIFO buffer of objects backed by a circular array.
+ * Used to hold yielded values until they are consumed, without allocating a list node per element.
+ * The array is reused between generator calls and grows by doubling when full. An array larger than 'maxIdleCapacity'
+ * is replaced by a smaller one once the buffer has been filled and emptied SHRINK_AFTER times in a row using less than
+ * a quarter of it, so a single burst does not pin a huge array for the lifetime of the iterator, while a generator that
+ * keeps yielding many values per call does not pay for growing it again every time.
+ *
+ * Not thread safe
+ */
+final class ObjectRingBuffer<T> {
+
+    static final int DEFAULT_MIN_CAPACITY = 16;
+    static final int DEFAULT_MAX_IDLE_CAPACITY = 8192;
+    static final int SHRINK_AFTER = 8;
+
+    private final int minCapacity;
+    private final int maxIdleCapacity;
+    private Object[] elements;
+    private int mask;
+    private int head = 0;
+    private int size = 0;
+    // most elements held since the buffer was last empty
+    private int peak = 0;
+    // times in a row the buffer was emptied having used less than a quarter of a large array, and the most it used then
+    private int quietResets = 0;
+    private int quietPeak = 0;
+
+    ObjectRingBuffer() {
+        this(DEFAULT_MIN_CAPACITY, DEFAULT_MAX_IDLE_CAPACITY);
+    }
+
+    ObjectRingBuffer(int minCapacity, int maxIdleCapacity) {
+        if (minCapacity < 1) {
+            throw new IllegalArgumentException("minCapacity must be > 0, not: " + minCapacity);
+        }
+        this.minCapacity = powerOfTwoAtLeast(minCapacity);
+        this.maxIdleCapacity = Math.max(this.minCapacity, maxIdleCapacity);
+        this.elements = new Object[this.minCapacity];
+        this.mask = this.minCapacity - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int capacity() {
+        return elements.length;
+    }
+
+    void addLast(T element) {
+        if (size == elements.length) {
+            grow(size + 1);
+        }
+        elements[(head + size) & mask] = element;
+        size++;
+        if (size > peak) {
+            peak = size;
+        }
+    }
+
+    /**
+     * append 'count' elements from 'source', starting at 'offset', using at most two array copies.
+     */
+    void addAll(T[] source, int offset, int count) {
+        if (count <= 0) {
+            return;
+        }
+        if (size + count > elements.length) {
+            grow(size + count);
+        }
+        int tail = (head + size) & mask;
+        int firstPart = Math.min(count, elements.length - tail);
+        System.arraycopy(source, offset, elements, tail, firstPart);
+        System.arraycopy(source, offset + firstPart, elements, 0, count - firstPart);
+        size += count;
+        if (size > peak) {
+            peak = size;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    T removeFirst() {
+        if (size == 0) {
+            throw new NoSuchElementException("removeFirst");
+        }
+        T element = (T) elements[head];
+        elements[head] = null;
+        head = (head + 1) & mask;
+        size--;
+        if (size == 0) {
+            reset();
+        }
+        return element;
+    }
+
+    /**
+     * move up to 'count' elements into 'target' starting at 'offset', using at most two array copies.
+     *
+     * @return number of elements moved
+     */
+    int removeFirstN(T[] target, int offset, int count) {
+        int toMove = Math.min(size, count);
+        if (toMove <= 0) {
+            return 0;
+        }
+        int firstPart = Math.min(toMove, elements.length - head);
+        System.arraycopy(elements, head, target, offset, firstPart);
+        System.arraycopy(elements, 0, target, offset + firstPart, toMove - firstPart);
+        clearRange(head, firstPart);
+        clearRange(0, toMove - firstPart);
+        head = (head + toMove) & mask;
+        size -= toMove;
+        if (size == 0) {
+            reset();
+        }
+        return toMove;
+    }
+
+    private void clearRange(int from, int count) {
+        for (int i = from, end = from + count; i < end; i++) {
+            elements[i] = null;
+        }
+    }
+
+    private void reset() {
+        head = 0;
+        if (elements.length > maxIdleCapacity) {
+            if (peak < elements.length / 4) {
+                quietPeak = Math.max(quietPeak, peak);
+                if (++quietResets >= SHRINK_AFTER) {
+                    int capacity = Math.max(minCapacity, powerOfTwoAtLeast(Math.max(1, quietPeak)));
+                    elements = new Object[capacity];
+                    mask = capacity - 1;
+                    quietResets = 0;
+                    quietPeak = 0;
+                }
+            } else {
+                quietResets = 0;
+                quietPeak = 0;
+            }
+        }
+        peak = 0;
+    }
+
+    private void grow(int required) {
+        int newCapacity = powerOfTwoAtLeast(required);
+        Object[] newElements = new Object[newCapacity];
+        int firstPart = Math.min(size, elements.length - head);
+        System.arraycopy(elements, head, newElements, 0, firstPart);
+        System.arraycopy(elements, 0, newElements, firstPart, size - firstPart);
+        elements = newElements;
+        mask = newCapacity - 1;
+        head = 0;
+    }
+
+    private static int powerOfTwoAtLeast(int value) {
+        if (value > (1 << 30)) {
+            throw new IllegalStateException("buffer too large: " + value);
+        }
+        int highest = Integer.highestOneBit(value);
+        return highest == value ? value : highest << 1;
+    }
+}
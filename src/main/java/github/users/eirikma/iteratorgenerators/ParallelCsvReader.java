@@ -0,0 +1,208 @@
+package github.users.eirikma.iteratorgenerators;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
+
+/**
+ * Parses a csv file in chunks on several threads, see CsvReader.iterateParallel().
+ *
+ * The file (after the header) is cut into chunks of 'chunkSize' bytes, and each chunk is parsed from the first record
+ * starting in it to the last record starting in it, which may end in the next chunk. Finding the first record of a
+ * chunk needs to know whether the chunk starts inside a quoted field, so this is done in two steps, both with
+ * Iterators.parallelMap: first the quotes in each chunk are counted, then each chunk is parsed knowing the number of
+ * quotes before it (inside quotes if odd). The two steps run at the same time, the counting just ahead of the parsing.
+ *
+ * Counting quotes assumes they are only used around fields (as in RFC 4180): a quote in the middle of an unquoted
+ * field, which the sequential readers keep as it is, makes the chunks after it start at the wrong place.
+ */
+final class ParallelCsvReader implements Closeable {
+
+    static final int DEFAULT_CHUNK_SIZE = 1 << 23;
+    private static final byte QUOTE = '"';
+
+    private final FileChannel channel;
+    private final Charset charset;
+    private final CsvSchema schema;
+    private final long dataStart;
+    private final long fileSize;
+    private final int chunkSize;
+    private final List<Closeable> stages = new ArrayList<>();
+    private boolean inQuotes = false;
+
+    private ParallelCsvReader(FileChannel channel, Charset charset, CsvSchema schema, long dataStart, int chunkSize) throws IOException {
+        this.channel = channel;
+        this.charset = charset;
+        this.schema = schema;
+        this.dataStart = dataStart;
+        this.fileSize = channel.size();
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param channel closed when the returned iterator is closed or done
+     */
+    static IteratorExt<CsvRow> iterate(FileChannel channel, Charset charset, int parallelism, boolean ordered,
+                                                   int chunkSize, Executor executor) throws IOException {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be > 0, not: " + parallelism);
+        }
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be > 0, not: " + chunkSize);
+        }
+        MappedCsvTokenizer tokenizer = new MappedCsvTokenizer(channel, 0L, Long.MAX_VALUE, chunkSize, true);
+        MappedCsvRow header = CsvReader.readHeader(tokenizer, charset);
+        if (header == null) {
+            tokenizer.close();
+            return Iterators.values();
+        }
+        ParallelCsvReader reader = new ParallelCsvReader(channel, charset, CsvReader.schemaOf(header), tokenizer.recordPosition(), chunkSize);
+        return reader.start(parallelism, ordered, executor);
+    }
+
+    private IteratorExt<CsvRow> start(int parallelism, boolean ordered, Executor executor) {
+        int windowSize = parallelism * 2;
+        IteratorExt<Chunk> counted = Iterators.parallelMap(chunks(), this::countQuotes, parallelism, windowSize, executor);
+        stages.add(counted);
+        Iterator<Chunk> located = new Iterator<Chunk>() {
+            @Override
+            public boolean hasNext() {
+                return counted.hasNext();
+            }
+
+            @Override
+            public Chunk next() {
+                Chunk chunk = counted.next();
+                chunk.startsInQuotes = inQuotes;
+                inQuotes ^= (chunk.quotes & 1) == 1;
+                return chunk;
+            }
+        };
+        IteratorExt<List<CsvRow>> parsed = ordered ?
+                Iterators.parallelMap(located, this::parse, parallelism, windowSize, executor) :
+                Iterators.parallelMapUnordered(located, this::parse, parallelism, windowSize, executor);
+        stages.add(parsed);
+        return Iterators.generatorWithState(this, yield -> {
+            // a call that yields nothing ends the iteration, so skip the chunks without records
+            while (parsed.hasNext()) {
+                List<CsvRow> rows = parsed.next();
+                if (!rows.isEmpty()) {
+                    for (CsvRow row : rows) {
+                        yield.yield(row);
+                    }
+                    return;
+                }
+            }
+            try {
+                yield.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * the chunks of the file after the header, in order. Quotes are counted from the byte before each chunk
+     * (up to the byte before the next), since that is where looking for its first record starts, see parse().
+     */
+    private Iterator<Chunk> chunks() {
+        return new Iterator<Chunk>() {
+            private long start = dataStart;
+
+            @Override
+            public boolean hasNext() {
+                return start < fileSize;
+            }
+
+            @Override
+            public Chunk next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("next");
+                }
+                long end = Math.min(fileSize, start + chunkSize);
+                Chunk chunk = new Chunk(start, end);
+                start = end;
+                return chunk;
+            }
+        };
+    }
+
+    private Chunk countQuotes(Chunk chunk) {
+        long from = chunk.start == dataStart ? dataStart : chunk.start - 1;
+        long to = chunk.end == fileSize ? fileSize : chunk.end - 1;
+        ByteBuffer bytes = map(from, to);
+        long quotes = 0L;
+        for (int i = 0; i < bytes.limit(); i++) {
+            if (bytes.get(i) == QUOTE) {
+                quotes++;
+            }
+        }
+        chunk.quotes = quotes;
+        return chunk;
+    }
+
+    /**
+     * the rows of the records starting in the chunk. Except for the first chunk, the first record starts after the
+     * first line break outside quotes at or after the byte before the chunk (that is a line break if the chunk
+     * starts with a record).
+     */
+    private List<CsvRow> parse(Chunk chunk) {
+        boolean first = chunk.start == dataStart;
+        try (MappedCsvTokenizer tokenizer = new MappedCsvTokenizer(channel, first ? dataStart : chunk.start - 1, chunk.end,
+                (int) Math.min(Integer.MAX_VALUE, chunkSize + (long) (chunkSize >> 3)), false)) {
+            tokenizer.setSeparator((byte) schema.getSeparator());
+            if (!first) {
+                tokenizer.skipPastLineBreak(chunk.startsInQuotes);
+            }
+            ArrayList<CsvRow> rows = new ArrayList<>();
+            MappedCsvRow row = new MappedCsvRow(schema, charset);
+            while (tokenizer.readRecord(row)) {
+                rows.add(row.toRow());
+            }
+            return rows;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private ByteBuffer map(long from, long to) {
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * stops the parsing and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            for (Closeable stage : stages) {
+                stage.close();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static final class Chunk {
+        final long start;
+        final long end;
+        long quotes;
+        boolean startsInQuotes;
+
+        Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
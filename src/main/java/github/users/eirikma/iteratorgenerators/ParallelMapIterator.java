@@ -0,0 +1,200 @@
+package github.users.eirikma.iteratorgenerators;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Function;
+
+/**
+ * Iterator applying a function to the input values on several worker threads.
+ *
+ * The input is read from the consumer's thread only, as far ahead as the window allows: at most 'windowSize'
+ * values are being mapped or waiting to be consumed at any time. 'parallelism' workers, running on the
+ * executor for as long as the iterator is in use, take the mapping jobs from a shared queue.
+ * The workers are started at the first call to hasNext() or next(), and stopped when the input is done or the
+ * iterator is closed: an iterator that is used but not read to the end must be closed, or its workers wait forever.
+ * When ordered, the results are returned in input order, so one slow value holds back the ones behind it
+ * (but not the workers, until the window is full). When not ordered, results are returned as soon as they are done.
+ *
+ * Not thread safe
+ */
+class ParallelMapIterator<I, O> implements IteratorExt<O> {
+
+    private static final FutureTask<Object> STOP = new FutureTask<>(() -> null);
+
+    private final Iterator<I> input;
+    private final Function<I, O> function;
+    private final int parallelism;
+    private final int windowSize;
+    private final boolean ordered;
+    private final Executor executor;
+    private final BlockingQueue<FutureTask<?>> jobs = new LinkedBlockingQueue<>();
+    // ordered: the jobs in the window, in input order
+    private final ArrayDeque<FutureTask<O>> window;
+    // unordered: the jobs in the window that are done, in the order they were done
+    private final BlockingQueue<FutureTask<O>> completed;
+    private int inFlight = 0;
+    private boolean closed = false;
+    private boolean workersStarted = false;
+    private boolean workersStopped = false;
+
+    ParallelMapIterator(Iterator<I> input, Function<I, O> function, int parallelism, int windowSize, boolean ordered, Executor executor) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be > 0, not: " + parallelism);
+        }
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be > 0, not: " + windowSize);
+        }
+        this.input = input;
+        this.function = function;
+        this.parallelism = parallelism;
+        this.windowSize = windowSize;
+        this.ordered = ordered;
+        this.window = ordered ? new ArrayDeque<>(windowSize) : null;
+        this.completed = ordered ? null : new LinkedBlockingQueue<>();
+        this.executor = executor;
+    }
+
+    private void startWorkers() {
+        workersStarted = true;
+        for (int i = 0; i < parallelism; i++) {
+            executor.execute(this::work);
+        }
+    }
+
+    private void work() {
+        try {
+            while (true) {
+                FutureTask<?> job = jobs.take();
+                if (job == STOP) {
+                    return;
+                }
+                job.run();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void fillWindow() {
+        while (inFlight < windowSize && input.hasNext()) {
+            I value = input.next();
+            FutureTask<O> job;
+            if (ordered) {
+                job = new FutureTask<>(() -> function.apply(value));
+                window.addLast(job);
+            } else {
+                job = new FutureTask<O>(() -> function.apply(value)) {
+                    @Override
+                    protected void done() {
+                        completed.add(this);
+                    }
+                };
+            }
+            inFlight++;
+            jobs.add(job);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        if (!workersStarted) {
+            startWorkers();
+        }
+        fillWindow();
+        if (inFlight == 0) {
+            stopWorkers();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public O next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("next");
+        }
+        try {
+            FutureTask<O> job = ordered ? window.removeFirst() : completed.take();
+            inFlight--;
+            return job.get();
+        } catch (ExecutionException e) {
+            closeIterator();
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * number of results that can be returned without waiting.
+     */
+    @Override
+    public int available() {
+        if (closed) {
+            return 0;
+        }
+        if (!ordered) {
+            return completed.size();
+        }
+        int done = 0;
+        for (FutureTask<O> job : window) {
+            if (!job.isDone()) {
+                break;
+            }
+            done++;
+        }
+        return done;
+    }
+
+    /**
+     * stop reading input, cancel the jobs in the window and stop the workers.
+     */
+    @Override
+    public void close() throws IOException {
+        closeIterator();
+    }
+
+    private void closeIterator() {
+        closed = true;
+        // not the STOP markers: the workers may have been stopped already
+        jobs.removeIf(job -> job != STOP);
+        if (ordered) {
+            for (FutureTask<O> job : window) {
+                job.cancel(false);
+            }
+            window.clear();
+        } else {
+            completed.clear();
+        }
+        inFlight = 0;
+        stopWorkers();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private void stopWorkers() {
+        if (!workersStopped) {
+            workersStopped = true;
+            if (!workersStarted) {
+                return;
+            }
+            for (int i = 0; i < parallelism; i++) {
+                jobs.add(STOP);
+            }
+        }
+    }
+}
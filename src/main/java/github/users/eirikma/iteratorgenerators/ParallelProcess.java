@@ -0,0 +1,348 @@
+package github.users.eirikma.iteratorgenerators;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs several Processor instances in parallel on the same input, merging their output into one iterator.
+ *
+ * One dispatcher task reads the input in batches and hands them out to the workers:
+ * through one shared queue of batches (any worker takes the next batch), or, when partitioned by key,
+ * through one pipe per worker so that values with equal keys always end up at the same worker.
+ * Each worker has its own Processor and its own Yield, which collects output in chunks and hands them
+ * over to a shared MultiThreadedObjectPipe. The output is therefore not in input order.
+ *
+ * An exception in the dispatcher or a worker is re-thrown (wrapped) from the output iterator.
+ * Closing the output iterator, a failure, or the last worker finishing stops everything else that is still running.
+ */
+class ParallelProcess<I, O> {
+
+    static final int BATCH_SIZE = 256;
+    private static final Object[] END = new Object[0];
+
+    private final Iterator<I> input;
+    private final Supplier<? extends Processor<I, O>> processors;
+    private final Function<? super I, ?> partitionKey;
+    private final int workers;
+    private final MultiThreadedObjectPipe<O> output = new MultiThreadedObjectPipe<>();
+    private final AtomicInteger runningWorkers;
+    private final Set<Thread> threads = new HashSet<>();
+    private volatile boolean stopped = false;
+    // not partitioned: batches of input shared by all workers
+    private final BlockingQueue<Object[]> batches;
+    // partitioned: one pipe of input per worker
+    private final List<SpscObjectPipe<I>> partitions;
+
+    ParallelProcess(Iterator<I> input, Supplier<? extends Processor<I, O>> processors, int workers, Function<? super I, ?> partitionKey) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be > 0, not: " + workers);
+        }
+        this.input = input;
+        this.processors = processors;
+        this.partitionKey = partitionKey;
+        this.workers = workers;
+        this.runningWorkers = new AtomicInteger(workers);
+        if (partitionKey == null) {
+            this.batches = new LinkedBlockingQueue<>(workers * 4);
+            this.partitions = null;
+        } else {
+            this.batches = null;
+            this.partitions = new ArrayList<>(workers);
+            for (int i = 0; i < workers; i++) {
+                partitions.add(new SpscObjectPipe<>(BATCH_SIZE * 4));
+            }
+        }
+    }
+
+    IteratorExt<O> start(Executor executor) {
+        executor.execute(this::dispatch);
+        for (int i = 0; i < workers; i++) {
+            IteratorExt<I> workerInput = partitions == null ? new BatchIterator() : partitions.get(i).getIterator();
+            executor.execute(() -> work(workerInput));
+        }
+        IteratorExt<O> iterator = output.getIterator();
+        return new IteratorExt<O>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public O next() {
+                return iterator.next();
+            }
+
+            @Override
+            public int nextN(O[] buffer, int offset, int count) {
+                return iterator.nextN(buffer, offset, count);
+            }
+
+            @Override
+            public int available() {
+                return iterator.available();
+            }
+
+            @Override
+            public void close() throws IOException {
+                iterator.close();
+                stop();
+            }
+
+            @Override
+            public boolean isClosed() {
+                return iterator.isClosed();
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private void dispatch() {
+        if (!bind()) {
+            return;
+        }
+        IteratorExt<I> source = Iterators.iteratorExt(input);
+        try {
+            I[] batch = (I[]) new Object[BATCH_SIZE];
+            boolean[] touched = partitions == null ? null : new boolean[workers];
+            int n;
+            while (!stopped && (n = Iterators.nextN(source, batch, 0, BATCH_SIZE)) > 0) {
+                if (partitions == null) {
+                    batches.put(n == BATCH_SIZE ? batch : Arrays.copyOf(batch, n));
+                    batch = (I[]) new Object[BATCH_SIZE];
+                } else {
+                    for (int i = 0; i < n; i++) {
+                        int worker = Math.floorMod(Objects.hashCode(partitionKey.apply(batch[i])), workers);
+                        Yield<I> yield = partitions.get(worker).getYieldTarget();
+                        // a worker whose processor has finished gets no more input
+                        try {
+                            yield.yield(batch[i]);
+                        } catch (RuntimeException e) {
+                            if (!yield.isClosed()) {
+                                throw e;
+                            }
+                        }
+                        batch[i] = null;
+                        touched[worker] = true;
+                    }
+                    // publish what each partition got, rather than waiting until it has a full chunk
+                    for (int worker = 0; worker < workers; worker++) {
+                        if (touched[worker]) {
+                            partitions.get(worker).getYieldTarget().flush();
+                            touched[worker] = false;
+                        }
+                    }
+                }
+            }
+            if (partitions == null) {
+                for (int i = 0; i < workers; i++) {
+                    batches.put(END);
+                }
+            } else {
+                for (SpscObjectPipe<I> partition : partitions) {
+                    partition.getYieldTarget().close();
+                }
+            }
+        } catch (Throwable e) {
+            if (!stopped) {
+                output.fail(e);
+                stop();
+            }
+        } finally {
+            unbind();
+        }
+    }
+
+    private void work(IteratorExt<I> workerInput) {
+        if (!bind()) {
+            return;
+        }
+        try {
+            Processor<I, O> processor = processors.get();
+            WorkerYield yield = new WorkerYield();
+            long before;
+            do {
+                before = yield.count();
+                processor.process(workerInput, yield);
+                yield.flush();
+            } while (yield.count() != before);
+            // no more input to this worker
+            workerInput.close();
+            if (runningWorkers.decrementAndGet() == 0) {
+                output.getYieldTarget().close();
+                stop();
+            }
+        } catch (Throwable e) {
+            if (!stopped) {
+                output.fail(e);
+                stop();
+            }
+        } finally {
+            unbind();
+        }
+    }
+
+    private boolean bind() {
+        synchronized (threads) {
+            if (stopped) {
+                return false;
+            }
+            threads.add(Thread.currentThread());
+            return true;
+        }
+    }
+
+    /**
+     * clears any interrupt from a stop() that raced with the task finishing, so it doesn't leak into the next task of a pooled thread.
+     */
+    private void unbind() {
+        synchronized (threads) {
+            threads.remove(Thread.currentThread());
+        }
+        Thread.interrupted();
+    }
+
+    private void stop() {
+        synchronized (threads) {
+            stopped = true;
+            for (Thread thread : threads) {
+                if (thread != Thread.currentThread()) {
+                    thread.interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * a worker's input when not partitioned: the values of the batches it takes from the shared queue.
+     */
+    private class BatchIterator implements IteratorExt<I> {
+        private Object[] batch = new Object[0];
+        private int pos = 0;
+
+        @Override
+        public boolean hasNext() {
+            if (pos < batch.length) {
+                return true;
+            }
+            if (batch == END) {
+                return false;
+            }
+            try {
+                batch = batches.take();
+                pos = 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            return pos < batch.length;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public I next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("next");
+            }
+            I value = (I) batch[pos];
+            batch[pos++] = null;
+            return value;
+        }
+
+        @Override
+        public int nextN(I[] buffer, int offset, int count) {
+            int toGet = Math.min(Math.min(buffer.length - offset, count), hasNext() ? batch.length - pos : 0);
+            System.arraycopy(batch, pos, buffer, offset, toGet);
+            Arrays.fill(batch, pos, pos + toGet, null);
+            pos += toGet;
+            return toGet;
+        }
+
+        @Override
+        public int available() {
+            return batch.length - pos;
+        }
+
+        @Override
+        public void close() throws IOException {
+            pos = batch.length;
+            batch = END;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return batch == END;
+        }
+    }
+
+    /**
+     * a worker's output: collects yielded values in chunks, handed over to the shared output pipe when full and on flush().
+     */
+    private class WorkerYield implements Yield<O> {
+        @SuppressWarnings("unchecked")
+        private final O[] chunk = (O[]) new Object[BATCH_SIZE];
+        private int chunkSize = 0;
+        private long count = 0L;
+        private final Yield<O> target = output.getYieldTarget();
+
+        @Override
+        public void yield(O value) {
+            if (target.isClosed()) {
+                throw new RuntimeException("closed");
+            }
+            chunk[chunkSize++] = value;
+            count++;
+            if (chunkSize == chunk.length) {
+                flush();
+            }
+        }
+
+        @Override
+        public void flush() {
+            if (chunkSize > 0) {
+                target.yieldN(chunk, 0, chunkSize);
+                Arrays.fill(chunk, 0, chunkSize, null);
+                chunkSize = 0;
+            }
+        }
+
+        @Override
+        public long count() {
+            return count;
+        }
+
+        /**
+         * the room left in the chunk, less the value filling it if the shared output has no room for the full chunk.
+         */
+        @Override
+        public int capacity() {
+            if (target.isClosed()) {
+                return 0;
+            }
+            int room = chunk.length - chunkSize;
+            return target.capacity() >= chunk.length ? room : room - 1;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return target.isClosed();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
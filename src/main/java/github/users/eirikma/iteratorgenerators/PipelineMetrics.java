@@ -0,0 +1,59 @@
+package github.users.eirikma.iteratorgenerators;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A StageListener that keeps the metrics of all the stages started, for looking at (or logging) a running pipeline
+ * to find the stage it waits for: a stage that spends its time in the generator while the next one waits,
+ * or a background stage with an empty queue, is the slow one.
+ */
+public final class PipelineMetrics implements StageListener {
+
+    private final List<StageMetrics> stages = new CopyOnWriteArrayList<>();
+    private final boolean keepFinished;
+
+    public PipelineMetrics() {
+        this(true);
+    }
+
+    /**
+     * @param keepFinished false to forget the stages when they finish, for long-running programs making many pipelines.
+     */
+    public PipelineMetrics(boolean keepFinished) {
+        this.keepFinished = keepFinished;
+    }
+
+    @Override
+    public void started(StageMetrics stage) {
+        stages.add(stage);
+    }
+
+    @Override
+    public void finished(StageMetrics stage) {
+        if (!keepFinished) {
+            stages.remove(stage);
+        }
+    }
+
+    /**
+     * the stages in the order they started
+     */
+    public List<StageMetrics> getStages() {
+        return Collections.unmodifiableList(new ArrayList<>(stages));
+    }
+
+    /**
+     * one line per stage
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (StageMetrics stage : stages) {
+            sb.append(stage).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,208 @@
+package github.users.eirikma.iteratorgenerators;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * The background() of IntIterators, LongIterators and DoubleIterators: the values are handed over in chunks of
+ * int[], long[] or double[] through an object background(), and the chunks are given back to the generator's side
+ * when consumed, so a running generator allocates nothing.
+ *
+ * Everything but the methods taking or returning single values is here, as those can not be generic without boxing:
+ * the primitive classes extend ChunkYield and ChunkIterator with just those.
+ */
+final class PrimitiveBackground {
+
+    /**
+     * values handed over from a background generator in chunks of this size.
+     */
+    static final int CHUNK_SIZE = 1024;
+    static final int BACKGROUND_CHUNKS = 64;
+
+    private PrimitiveBackground() {
+    }
+
+    /**
+     * the generator's side: fills chunks and yields them when full, on flush() and close(), and at the end of each
+     * generator call, so the consumer gets the values when the generator returns, like with Iterators.background().
+     *
+     * @param <A> int[], long[] or double[]
+     */
+    abstract static class ChunkYield<A> {
+        private final IntFunction<A> newArray;
+        private final BlockingQueue<PrimitiveChunk<A>> recycled = new ArrayBlockingQueue<>(BACKGROUND_CHUNKS + 2);
+        private Yield<PrimitiveChunk<A>> target;
+        private PrimitiveChunk<A> chunk;
+        private long count = 0L;
+
+        ChunkYield(IntFunction<A> newArray) {
+            this.newArray = newArray;
+        }
+
+        /**
+         * the chunk to put the next value in: call yielded() after putting it there.
+         */
+        final PrimitiveChunk<A> chunkWithRoom() {
+            if (chunk == null) {
+                PrimitiveChunk<A> empty = recycled.poll();
+                chunk = empty != null ? empty : new PrimitiveChunk<>(newArray.apply(CHUNK_SIZE));
+            }
+            return chunk;
+        }
+
+        final void yielded() {
+            count++;
+            if (chunk.size == CHUNK_SIZE) {
+                flushChunk();
+            }
+        }
+
+        /**
+         * yieldN() for any of the array types, 'length' being the length of 'values'.
+         */
+        final int yieldValues(A values, int length, int offset, int count) {
+            int toYield = Math.min(length - offset, count);
+            int yielded = 0;
+            while (yielded < toYield) {
+                PrimitiveChunk<A> chunk = chunkWithRoom();
+                int n = Math.min(toYield - yielded, CHUNK_SIZE - chunk.size);
+                System.arraycopy(values, offset + yielded, chunk.values, chunk.size, n);
+                chunk.size += n;
+                yielded += n;
+                if (chunk.size == CHUNK_SIZE) {
+                    flushChunk();
+                }
+            }
+            this.count += yielded;
+            return yielded;
+        }
+
+        private void flushChunk() {
+            if (chunk != null && chunk.size > 0) {
+                PrimitiveChunk<A> full = chunk;
+                chunk = null;
+                target.yield(full);
+            }
+        }
+
+        public void flush() {
+            flushChunk();
+            target.flush();
+        }
+
+        public long count() {
+            return count;
+        }
+
+        /**
+         * the room left in the current chunk, plus a chunk per free slot of the pipe after the one the current chunk goes to.
+         * Without a free slot, the value filling the current chunk blocks.
+         */
+        public int capacity() {
+            int free = target.capacity();
+            int room = CHUNK_SIZE - (chunk == null ? 0 : chunk.size);
+            if (free <= 0) {
+                return target.isClosed() ? 0 : room - 1;
+            }
+            return (int) Math.min(Integer.MAX_VALUE, room + (free - 1L) * CHUNK_SIZE);
+        }
+
+        public void close() throws IOException {
+            flushChunk();
+            target.close();
+        }
+
+        public boolean isClosed() {
+            return target.isClosed();
+        }
+    }
+
+    /**
+     * the consumer's side: reads the values of the chunks, giving each chunk back when done with it.
+     *
+     * @param <A> int[], long[] or double[]
+     */
+    abstract static class ChunkIterator<A> {
+        private final IteratorExt<PrimitiveChunk<A>> chunks;
+        private final BlockingQueue<PrimitiveChunk<A>> recycled;
+        private PrimitiveChunk<A> current;
+        int pos = 0;
+
+        /**
+         * run the generator in the background: 'generate' calls it once with 'yield'.
+         * A call that yields nothing ends the iteration.
+         */
+        ChunkIterator(ChunkYield<A> yield, Runnable generate, Executor executor) {
+            this.recycled = yield.recycled;
+            this.chunks = Iterators.<PrimitiveChunk<A>>background(target -> {
+                yield.target = target;
+                generate.run();
+                yield.flushChunk();
+            }, executor, BACKGROUND_CHUNKS, WaitStrategy.SPIN_THEN_PARK, 0L, TimeUnit.MILLISECONDS);
+        }
+
+        public boolean hasNext() {
+            while (current == null || pos == current.size) {
+                recycle();
+                if (!chunks.hasNext()) {
+                    return false;
+                }
+                current = chunks.next();
+                pos = 0;
+            }
+            return true;
+        }
+
+        private void recycle() {
+            if (current != null) {
+                current.size = 0;
+                recycled.offer(current);
+                current = null;
+            }
+        }
+
+        /**
+         * the chunk holding the next value, at 'pos': move pos past the value after reading it.
+         */
+        final PrimitiveChunk<A> currentChunk() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("next");
+            }
+            return current;
+        }
+
+        /**
+         * nextN() for any of the array types, 'length' being the length of 'buffer':
+         * the rest of the current chunk, and more chunks as long as they are there without waiting.
+         */
+        final int nextValues(A buffer, int length, int offset, int count) {
+            int toGet = Math.min(length - offset, count);
+            int gotten = 0;
+            while (gotten < toGet && (gotten == 0 || pos < current.size || chunks.available() > 0) && hasNext()) {
+                int n = Math.min(toGet - gotten, current.size - pos);
+                System.arraycopy(current.values, pos, buffer, offset + gotten, n);
+                pos += n;
+                gotten += n;
+            }
+            return gotten;
+        }
+
+        public int available() {
+            return current != null ? current.size - pos : 0;
+        }
+
+        public void close() throws IOException {
+            current = null;
+            chunks.close();
+        }
+
+        public boolean isClosed() {
+            return (current == null || pos == current.size) && chunks.isClosed();
+        }
+    }
+}
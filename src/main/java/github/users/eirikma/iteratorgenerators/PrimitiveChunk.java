@@ -0,0 +1,15 @@
+package github.users.eirikma.iteratorgenerators;
+
+/**
+ * A chunk of primitive values on its way from a background generator to the consumer, see PrimitiveBackground.
+ *
+ * @param <A> int[], long[] or double[]
+ */
+final class PrimitiveChunk<A> {
+    final A values;
+    int size = 0;
+
+    PrimitiveChunk(A values) {
+        this.values = values;
+    }
+}
@@ -0,0 +1,23 @@
+package github.users.eirikma.iteratorgenerators;
+
+/**
+ * Base for iterators that hand out one value per nextN() call, because they return the same (reused) instance for
+ * every value, so filling an array with several of them makes no sense.
+ *
+ * nextN() is declared here with the type parameter, so it takes any array: an anonymous subclass overriding it
+ * with a concrete array type would get a bridge method casting the array, failing for the Object[] that generic
+ * callers pass.
+ *
+ * Spliterators over these are not split, so they can be streamed, but not in parallel.
+ */
+abstract class SingleStepIterator<T> implements IteratorExt<T> {
+
+    @Override
+    public final int nextN(T[] buffer, int offset, int count) {
+        if (count <= 0 || offset >= buffer.length || !hasNext()) {
+            return 0;
+        }
+        buffer[offset] = next();
+        return 1;
+    }
+}
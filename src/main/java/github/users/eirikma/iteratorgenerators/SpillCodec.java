@@ -0,0 +1,38 @@
+package github.users.eirikma.iteratorgenerators;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes values to temp files and reads them back, for Iterators.sorted() when the values don't fit in memory.
+ * A value is read back from the same bytes it was written as, in the same order.
+ */
+public interface SpillCodec<T> {
+
+    void write(T value, DataOutput output) throws IOException;
+
+    T read(DataInput input) throws IOException;
+
+    /**
+     * strings of any length, as utf-8 (DataOutput.writeUTF() is limited to 64k). Can not be used for null.
+     */
+    static SpillCodec<String> strings() {
+        return new SpillCodec<String>() {
+            @Override
+            public void write(String value, DataOutput output) throws IOException {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                output.writeInt(bytes.length);
+                output.write(bytes);
+            }
+
+            @Override
+            public String read(DataInput input) throws IOException {
+                byte[] bytes = new byte[input.readInt()];
+                input.readFully(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+    }
+}
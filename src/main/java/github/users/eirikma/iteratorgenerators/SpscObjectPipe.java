@@ -0,0 +1,453 @@
+package github.users.eirikma.iteratorgenerators;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free pipe between exactly one producer thread (using the Yield) and one consumer thread (using the Iterator).
+ *
+ * Values are written into a bounded ring buffer. The producer writes values straight into the buffer slots, but
+ * publishes its 'tail' sequence (making them visible to the consumer) only once per chunk of values, on flush(),
+ * on close() or when the buffer is full. The consumer publishes its 'head' sequence once per nextN call,
+ * or once every few next() calls.
+ * Each side keeps a cached copy of the other side's sequence and only re-reads the shared (volatile) one when the
+ * cached value says the buffer is full / empty. The two sequences live on separate cache lines, see SpscSequences.
+ * A side that has to wait spins and/or parks according to the WaitStrategy, and is unparked by the other side.
+ *
+ * Not thread safe: the yield must be used from one thread, the iterator from one (other) thread.
+ */
+class SpscObjectPipe<T> extends SpscSequences implements ObjectPipe<T> {
+
+    static final int DEFAULT_BUFFER_CAPACITY = 8192;
+    private static final int MAX_UNPUBLISHED_READS = 64;
+    private static final int MAX_UNPUBLISHED_WRITES = 256;
+
+    private final Object[] elements;
+    private final int mask;
+    private final int bufferCapacity;
+    private final int publishEvery;
+    private final int publishChunk;
+    private final WaitStrategy waitStrategy;
+    private final long timeoutNanos;
+    private volatile boolean closed = false;
+    private volatile Thread waitingConsumer;
+    private volatile Thread waitingProducer;
+    // error thrown by the producer, re-thrown to the consumer once the values yielded before it are consumed
+    private volatile Throwable failure;
+    // thread running the producer, interrupted when the consumer closes the pipe
+    private Thread producerThread;
+    // consumer side only
+    private boolean consumerClosed = false;
+    private Yield<T> yield;
+    private IteratorExt<T> iterator;
+
+    SpscObjectPipe() {
+        this(DEFAULT_BUFFER_CAPACITY);
+    }
+
+    SpscObjectPipe(int bufferCapacity) {
+        this(bufferCapacity, WaitStrategy.SPIN_THEN_PARK, 0L, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param bufferCapacity max number of values yielded but not yet consumed
+     * @param waitStrategy   how producer and consumer wait for each other
+     * @param timeout        max time to wait for the other thread, 0 means wait forever
+     */
+    SpscObjectPipe(int bufferCapacity, WaitStrategy waitStrategy, long timeout, TimeUnit unit) {
+        if (bufferCapacity < 1 || bufferCapacity > (1 << 30)) {
+            throw new IllegalArgumentException("bufferCapacity must be in [1, 2^30], not: " + bufferCapacity);
+        }
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout must be >= 0, not: " + timeout);
+        }
+        int arraySize = Integer.highestOneBit(bufferCapacity) == bufferCapacity ? bufferCapacity : Integer.highestOneBit(bufferCapacity) << 1;
+        this.elements = new Object[arraySize];
+        this.mask = arraySize - 1;
+        this.bufferCapacity = bufferCapacity;
+        this.publishEvery = Math.max(1, Math.min(MAX_UNPUBLISHED_READS, bufferCapacity / 8));
+        this.publishChunk = Math.max(1, Math.min(MAX_UNPUBLISHED_WRITES, bufferCapacity / 4));
+        this.waitStrategy = waitStrategy;
+        this.timeoutNanos = unit.toNanos(timeout);
+
+        yield = new Yield<T>() {
+            @Override
+            public void yield(T value) {
+                if (closed) {
+                    throw new RuntimeException("closed");
+                }
+                long t = producerTail;
+                if (t - headCache >= bufferCapacity) {
+                    awaitSpace(t);
+                }
+                put(t, value);
+            }
+
+            @Override
+            public boolean tryYield(T value) {
+                return this.yield(value, 0L, TimeUnit.NANOSECONDS);
+            }
+
+            /**
+             * waits for room like yield() does, but for at most 'timeout' instead of the pipe's timeout.
+             */
+            @Override
+            public boolean yield(T value, long timeout, TimeUnit unit) {
+                if (closed) {
+                    throw new RuntimeException("closed");
+                }
+                long t = producerTail;
+                if (t - headCache >= bufferCapacity && awaitSpace(t, unit.toNanos(timeout), true) == 0) {
+                    return false;
+                }
+                put(t, value);
+                return true;
+            }
+
+            @Override
+            public int yieldN(T[] values, int offset, int count) {
+                if (closed) {
+                    throw new RuntimeException("closed");
+                }
+                int toYield = Math.max(0, Math.min(values.length - offset, count));
+                int yielded = 0;
+                while (yielded < toYield) {
+                    long t = producerTail;
+                    int free = awaitSpace(t);
+                    int n = Math.min(toYield - yielded, free);
+                    int index = (int) t & mask;
+                    int firstPart = Math.min(n, elements.length - index);
+                    System.arraycopy(values, offset + yielded, elements, index, firstPart);
+                    System.arraycopy(values, offset + yielded + firstPart, elements, 0, n - firstPart);
+                    producerTail = t + n;
+                    unpublishedWrites += n;
+                    yielded += n;
+                }
+                if (unpublishedWrites >= publishChunk) {
+                    publishTail();
+                }
+                return yielded;
+            }
+
+            @Override
+            public void flush() {
+                if (unpublishedWrites > 0) {
+                    publishTail();
+                }
+            }
+
+            /**
+             * number of values yielded, published or not. To be called from the producer thread.
+             */
+            @Override
+            public long count() {
+                return producerTail;
+            }
+
+            /**
+             * free slots in the buffer. To be called from the producer thread.
+             */
+            @Override
+            public int capacity() {
+                if (closed) {
+                    return 0;
+                }
+                headCache = head;
+                return (int) (bufferCapacity - (producerTail - headCache));
+            }
+
+            @Override
+            public boolean isClosed() {
+                return closed;
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+                closePipe();
+            }
+        };
+
+        iterator = new IteratorExt<T>() {
+
+            @Override
+            public int available() {
+                return consumerClosed ? 0 : (int) (tail - consumerHead);
+            }
+
+            @Override
+            public boolean hasNext() {
+                return consumerHead < tailCache || awaitValues();
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("next");
+                }
+                int index = (int) consumerHead & mask;
+                T value = (T) elements[index];
+                elements[index] = null;
+                consumerHead++;
+                if (++unpublishedReads >= publishEvery) {
+                    publishHead();
+                }
+                return value;
+            }
+
+            /**
+             * like InputStream.read(buffer, offset, count): waits for at least one item,
+             * then takes whatever is already published (up to 'count') in at most two array copies.
+             */
+            @Override
+            public int nextN(T[] target, int offset, int count) {
+                int toGet = Math.min(target.length - offset, count);
+                if (toGet <= 0 || !hasNext()) {
+                    return 0;
+                }
+                int n = (int) Math.min(toGet, tailCache - consumerHead);
+                int index = (int) consumerHead & mask;
+                int firstPart = Math.min(n, elements.length - index);
+                System.arraycopy(elements, index, target, offset, firstPart);
+                System.arraycopy(elements, 0, target, offset + firstPart, n - firstPart);
+                clear(index, firstPart);
+                clear(0, n - firstPart);
+                consumerHead += n;
+                publishHead();
+                return n;
+            }
+
+            /**
+             * stop consuming: the producer fails on its next yield, and is interrupted if it is blocked.
+             */
+            @Override
+            public void close() throws IOException {
+                consumerClosed = true;
+                tailCache = consumerHead;
+                closePipe();
+                interruptProducer();
+            }
+
+            @Override
+            public boolean isClosed() {
+                return consumerClosed || (closed && consumerHead == tail);
+            }
+        };
+    }
+
+    /**
+     * called by the thread that will run the producer, before it starts.
+     */
+    synchronized void bindProducer(Thread thread) {
+        producerThread = thread;
+    }
+
+    /**
+     * called by the producer thread when it is done. Clears any interrupt from a close() that raced with the producer finishing,
+     * so it doesn't leak into the next task of a pooled thread.
+     */
+    void unbindProducer() {
+        synchronized (this) {
+            producerThread = null;
+        }
+        Thread.interrupted();
+    }
+
+    private synchronized void interruptProducer() {
+        if (producerThread != null && producerThread != Thread.currentThread()) {
+            producerThread.interrupt();
+        }
+    }
+
+    /**
+     * called from the producer thread when the producer throws: close the pipe and hand the error over to the consumer.
+     * Ignored if the pipe is already closed, since then the error is most likely caused by yielding to a closed pipe.
+     */
+    void fail(Throwable error) {
+        if (closed) {
+            return;
+        }
+        yield.flush();
+        failure = error;
+        closePipe();
+    }
+
+    /**
+     * producer side: write a value to slot 't', which must be free.
+     */
+    private void put(long t, T value) {
+        elements[(int) t & mask] = value;
+        producerTail = t + 1;
+        if (++unpublishedWrites >= publishChunk) {
+            publishTail();
+        }
+    }
+
+    private void clear(int from, int count) {
+        for (int i = from, end = from + count; i < end; i++) {
+            elements[i] = null;
+        }
+    }
+
+    private void publishTail() {
+        unpublishedWrites = 0;
+        tail = producerTail;
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    private void publishHead() {
+        unpublishedReads = 0;
+        head = consumerHead;
+        Thread producer = waitingProducer;
+        if (producer != null) {
+            LockSupport.unpark(producer);
+        }
+    }
+
+    private void closePipe() {
+        closed = true;
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+        Thread producer = waitingProducer;
+        if (producer != null) {
+            LockSupport.unpark(producer);
+        }
+    }
+
+    /**
+     * producer side: wait until there is room for at least one value after 't', at most the pipe's timeout.
+     *
+     * @return number of free slots
+     */
+    private int awaitSpace(long t) {
+        int free = awaitSpace(t, timeoutNanos, timeoutNanos != 0L);
+        if (free == 0) {
+            throw new RuntimeException(new TimeoutException("timed out waiting for values to be consumed"));
+        }
+        return free;
+    }
+
+    /**
+     * producer side: wait until there is room for at least one value after 't', at most 'nanos' if 'timed'.
+     * Values not yet published are published before waiting, since the consumer might be waiting for them.
+     *
+     * @return number of free slots, 0 if the time ran out
+     */
+    private int awaitSpace(long t, long nanos, boolean timed) {
+        long free = bufferCapacity - (t - headCache);
+        if (free > 0) {
+            return (int) free;
+        }
+        if (unpublishedWrites > 0) {
+            publishTail();
+        }
+        long deadline = timed ? System.nanoTime() + nanos : 0L;
+        for (int i = 0; ; i++) {
+            headCache = head;
+            free = bufferCapacity - (t - headCache);
+            if (free > 0) {
+                return (int) free;
+            }
+            if (closed) {
+                throw new RuntimeException("closed");
+            }
+            if (timed && deadline - System.nanoTime() <= 0L) {
+                return 0;
+            }
+            if (waitStrategy == WaitStrategy.SPIN_THEN_PARK && i < WaitStrategy.SPIN_TRIES + WaitStrategy.YIELD_TRIES) {
+                if (i >= WaitStrategy.SPIN_TRIES) {
+                    Thread.yield();
+                }
+                continue;
+            }
+            waitingProducer = Thread.currentThread();
+            if (t - head >= bufferCapacity && !closed) {
+                park(deadline, timed, "waiting for values to be consumed");
+            }
+            waitingProducer = null;
+        }
+    }
+
+    /**
+     * consumer side: wait until values are published or the pipe is closed.
+     *
+     * @return true if there are values to consume.
+     */
+    private boolean awaitValues() {
+        if (consumerClosed) {
+            return false;
+        }
+        long deadline = 0L;
+        for (int i = 0; ; i++) {
+            tailCache = tail;
+            if (consumerHead < tailCache) {
+                return true;
+            }
+            if (closed) {
+                tailCache = tail;
+                if (consumerHead < tailCache) {
+                    return true;
+                }
+                if (failure != null) {
+                    throw new RuntimeException("background producer failed", failure);
+                }
+                return false;
+            }
+            if (unpublishedReads > 0) {
+                // the producer might be waiting for these slots
+                publishHead();
+            }
+            if (waitStrategy == WaitStrategy.SPIN_THEN_PARK && i < WaitStrategy.SPIN_TRIES + WaitStrategy.YIELD_TRIES) {
+                if (i >= WaitStrategy.SPIN_TRIES) {
+                    Thread.yield();
+                }
+                continue;
+            }
+            if (deadline == 0L) {
+                deadline = System.nanoTime() + timeoutNanos;
+            }
+            if (timeoutNanos != 0L && deadline - System.nanoTime() <= 0L) {
+                throw new RuntimeException(new TimeoutException("timed out waiting for values to be yielded"));
+            }
+            waitingConsumer = Thread.currentThread();
+            if (tail == consumerHead && !closed) {
+                park(deadline, timeoutNanos != 0L, "waiting for values to be yielded");
+            }
+            waitingConsumer = null;
+        }
+    }
+
+    /**
+     * park until unparked, or at the latest until 'deadline' if 'timed'. The caller checks whether the time is up.
+     */
+    private void park(long deadline, boolean timed, String waitingFor) {
+        if (!timed) {
+            LockSupport.park(this);
+        } else {
+            long remaining = deadline - System.nanoTime();
+            if (remaining > 0L) {
+                LockSupport.parkNanos(this, remaining);
+            }
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            throw new RuntimeException(new InterruptedException("interrupted " + waitingFor));
+        }
+    }
+
+    public Yield<T> getYieldTarget() {
+        return yield;
+    }
+
+    public IteratorExt<T> getIterator() {
+        return iterator;
+    }
+}
@@ -0,0 +1,40 @@
+package github.users.eirikma.iteratorgenerators;
+
+/**
+ * Sequence fields for SpscObjectPipe, each side's fields padded onto their own cache line(s)
+ * so the producer and consumer threads don't invalidate each others caches ("false sharing").
+ *
+ * The JVM may reorder fields within a class, but fields of a superclass are always laid out before those
+ * of a subclass, hence the class hierarchy.
+ */
+abstract class SpscSequences extends SpscConsumerFields {
+    long p30, p31, p32, p33, p34, p35, p36, p37;
+}
+
+abstract class SpscPadding0 {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+}
+
+abstract class SpscProducerFields extends SpscPadding0 {
+    /** first sequence not yet published to the consumer. Written by the producer only. */
+    volatile long tail = 0L;
+    /** next sequence to be written; runs ahead of 'tail' by the values not yet published */
+    long producerTail = 0L;
+    /** producer's last known value of 'head' */
+    long headCache = 0L;
+    int unpublishedWrites = 0;
+}
+
+abstract class SpscPadding1 extends SpscProducerFields {
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+}
+
+abstract class SpscConsumerFields extends SpscPadding1 {
+    /** first sequence not yet released to the producer. Written by the consumer only. */
+    volatile long head = 0L;
+    /** next sequence to be read; runs ahead of 'head' by up to a few unpublished reads */
+    long consumerHead = 0L;
+    /** consumer's last known value of 'tail' */
+    long tailCache = 0L;
+    int unpublishedReads = 0;
+}
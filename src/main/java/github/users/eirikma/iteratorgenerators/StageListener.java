@@ -0,0 +1,22 @@
+package github.users.eirikma.iteratorgenerators;
+
+/**
+ * Gets the metrics of the stages made with Iterators.instrumented(), for logging them or
+ * publishing them to whatever metrics system is in use. See also PipelineMetrics.
+ *
+ * The callbacks come from the thread running the stage, so they should be quick.
+ */
+public interface StageListener {
+
+    /**
+     * the stage has been asked for its first value. The metrics are updated while it runs,
+     * and may be read from any thread.
+     */
+    default void started(StageMetrics stage) {
+    }
+
+    /**
+     * the stage is done: it ended, failed or was closed.
+     */
+    void finished(StageMetrics stage);
+}
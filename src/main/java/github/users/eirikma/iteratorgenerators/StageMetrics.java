@@ -0,0 +1,139 @@
+package github.users.eirikma.iteratorgenerators;
+
+/**
+ * Counters for one stage of a pipeline, made by Iterators.instrumented().
+ * Updated by the thread running the stage, and readable from any thread while it runs.
+ *
+ * An instrumented iterator measures the consumer side of a stage: the values taken, the time spent waiting for the
+ * source to have a value, and the number of values the source had ready the last time it was waited for
+ * (for background() iterators, the values in the buffer).
+ * An instrumented generator measures the producer side: the values yielded (from Yield.count())
+ * and the time spent in yieldNextValues().
+ */
+public final class StageMetrics {
+
+    private final String name;
+    private volatile long startNanos = 0L;
+    private volatile long endNanos = 0L;
+    private volatile boolean started = false;
+    private volatile boolean finished = false;
+    private volatile long elements = 0L;
+    private volatile long generatorCalls = 0L;
+    private volatile long generatorNanos = 0L;
+    private volatile long waitNanos = 0L;
+    private volatile int queueDepth = 0;
+
+    StageMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * values taken from an instrumented iterator, or yielded by an instrumented generator.
+     */
+    public long getElements() {
+        return elements;
+    }
+
+    public long getGeneratorCalls() {
+        return generatorCalls;
+    }
+
+    /**
+     * time spent in the generator's yieldNextValues()
+     */
+    public long getGeneratorNanos() {
+        return generatorNanos;
+    }
+
+    /**
+     * time the consumer of an instrumented iterator has spent waiting in the source's hasNext()
+     */
+    public long getWaitNanos() {
+        return waitNanos;
+    }
+
+    /**
+     * values the source of an instrumented iterator had ready (its available()) the last time the consumer had to ask it
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * time from the first value was asked for until the stage finished, or until now if it is still running
+     */
+    public long getElapsedNanos() {
+        if (!started) {
+            return 0L;
+        }
+        return (finished ? endNanos : System.nanoTime()) - startNanos;
+    }
+
+    /**
+     * elements per second over the elapsed time
+     */
+    public double getThroughput() {
+        long elapsed = getElapsedNanos();
+        return elapsed > 0L ? elements * 1e9 / elapsed : 0.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d elements in %.1f ms (%.0f/s), generator %.1f ms in %d calls, waited %.1f ms, queue %d%s",
+                name, elements, getElapsedNanos() / 1e6, getThroughput(), generatorNanos / 1e6, generatorCalls,
+                waitNanos / 1e6, queueDepth, finished ? ", finished" : "");
+    }
+
+    // updated by the one thread running the stage:
+
+    /**
+     * @return true the first time
+     */
+    boolean start() {
+        if (started) {
+            return false;
+        }
+        startNanos = System.nanoTime();
+        started = true;
+        return true;
+    }
+
+    /**
+     * @return true the first time
+     */
+    boolean finish() {
+        if (finished) {
+            return false;
+        }
+        endNanos = System.nanoTime();
+        finished = true;
+        return true;
+    }
+
+    void addElements(long count) {
+        elements = elements + count;
+    }
+
+    void addGeneratorCall(long nanos, long yielded) {
+        generatorCalls = generatorCalls + 1;
+        generatorNanos = generatorNanos + nanos;
+        elements = elements + yielded;
+    }
+
+    void addWait(long nanos, int ready) {
+        waitNanos = waitNanos + nanos;
+        queueDepth = ready;
+    }
+}
@@ -0,0 +1,189 @@
+package github.users.eirikma.iteratorgenerators;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batches of up to 'batchSize' values, each handed out at the latest 'maxDelay' after its first value arrived,
+ * for streaming sinks that should not wait for a full batch when the input is slow.
+ *
+ * Waiting for the input with a time limit needs the input to be read in another thread: a feeder task on the executor
+ * reads it into a bounded queue, and the batches are taken from that queue with timed polls.
+ * An exception from the input is re-thrown (wrapped) after the values read before it have been handed out.
+ *
+ * Not thread safe
+ */
+class TimedBatches<T> implements IteratorExt<List<T>> {
+
+    private static final Object END = new Object();
+    private static final Object NULL = new Object();
+
+    private final Iterator<T> source;
+    private final int batchSize;
+    private final long maxDelayNanos;
+    private final BlockingQueue<Object> queue;
+    private volatile boolean closed = false;
+    private Thread feeder;
+    private List<T> ready;
+    private boolean ended = false;
+    private Throwable failure;
+
+    TimedBatches(Iterator<T> source, int batchSize, long maxDelay, TimeUnit unit, Executor executor) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be > 0, not: " + batchSize);
+        }
+        if (maxDelay < 0) {
+            throw new IllegalArgumentException("maxDelay must be >= 0, not: " + maxDelay);
+        }
+        this.source = source;
+        this.batchSize = batchSize;
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        this.queue = new ArrayBlockingQueue<>(Math.min(Integer.MAX_VALUE / 2, batchSize) * 2);
+        executor.execute(this::feed);
+    }
+
+    private void feed() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            feeder = Thread.currentThread();
+        }
+        try {
+            while (!closed && source.hasNext()) {
+                T value = source.next();
+                queue.put(value == null ? NULL : value);
+            }
+            queue.put(END);
+        } catch (InterruptedException e) {
+            // closed
+        } catch (Throwable e) {
+            try {
+                queue.put(new Failure(e));
+            } catch (InterruptedException closed) {
+                // closed
+            }
+        } finally {
+            synchronized (this) {
+                feeder = null;
+            }
+            // an interrupt from close() racing with the end of the input must not leak into the next task of a pooled thread
+            Thread.interrupted();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (ready == null && !ended && !closed) {
+            ready = readBatch();
+        }
+        if (ready == null && failure != null) {
+            Throwable e = failure;
+            failure = null;
+            throw new RuntimeException("input failed", e);
+        }
+        return ready != null;
+    }
+
+    @Override
+    public List<T> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("next");
+        }
+        List<T> batch = ready;
+        ready = null;
+        return batch;
+    }
+
+    /**
+     * @return null at the end of the input
+     */
+    private List<T> readBatch() {
+        try {
+            Object value = queue.take();
+            if (isEnd(value)) {
+                return null;
+            }
+            ArrayList<T> batch = new ArrayList<>(Math.min(batchSize, 1024));
+            batch.add(unwrap(value));
+            long deadline = System.nanoTime() + maxDelayNanos;
+            while (batch.size() < batchSize) {
+                value = queue.poll();
+                if (value == null) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0L || (value = queue.poll(remaining, TimeUnit.NANOSECONDS)) == null) {
+                        break;
+                    }
+                }
+                if (isEnd(value)) {
+                    break;
+                }
+                batch.add(unwrap(value));
+            }
+            return batch;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private boolean isEnd(Object value) {
+        if (value instanceof Failure) {
+            failure = ((Failure) value).cause;
+            ended = true;
+        } else if (value == END) {
+            ended = true;
+        }
+        return ended;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T unwrap(Object value) {
+        return value == NULL ? null : (T) value;
+    }
+
+    @Override
+    public int available() {
+        return ready != null ? 1 : 0;
+    }
+
+    /**
+     * stop reading the input and close it, like the other batch iterators do:
+     * the feeder is interrupted if it is waiting for the queue.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            if (feeder != null) {
+                feeder.interrupt();
+            }
+        }
+        ready = null;
+        queue.clear();
+        if (source instanceof Closeable) {
+            ((Closeable) source).close();
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed || (ended && ready == null);
+    }
+
+    private static final class Failure {
+        final Throwable cause;
+
+        Failure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+}
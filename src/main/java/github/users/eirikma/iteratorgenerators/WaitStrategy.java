@@ -0,0 +1,22 @@
+package github.users.eirikma.iteratorgenerators;
+
+/**
+ * How a thread waits for the other end of a pipe between two threads: the consumer waiting
+ * for values to be yielded, or the producer waiting for free space in the buffer.
+ */
+public enum WaitStrategy {
+
+    /**
+     * Busy-spin for a short while before blocking. Lowest hand-off latency for busy pipelines,
+     * at the cost of some cpu while spinning.
+     */
+    SPIN_THEN_PARK,
+
+    /**
+     * Block right away until signalled by the other thread. Idle pipelines use no cpu at all.
+     */
+    BLOCKING;
+
+    static final int SPIN_TRIES = 200;
+    static final int YIELD_TRIES = 50;
+}
@@ -2,6 +2,8 @@ package github.users.eirikma.iteratorgenerators;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import static java.lang.Math.min;
 
@@ -46,6 +48,16 @@ public interface Yield<T> extends Closeable {
     }
 
 
+    /**
+     * Hand over values yielded so far to the consumer right away. Similar to flush() in java.io.OutputStream.
+     * Yields that buffer values on their way to another thread publish them in chunks; the chunk is
+     * also published at the end of each call to the generator and on close(). Latency-sensitive generators
+     * can call this to force an earlier hand-off.
+     *
+     * default: nothing to flush.
+     */
+    default void flush() {}
+
     @Override
     default void close() throws IOException {}
 
@@ -56,9 +68,49 @@ public interface Yield<T> extends Closeable {
      * The number of items that can be yielded without blocking. Similar to 'available()' in java.io.InputStream,
      * but this time for output and counted in terms of objects instead of bytes.
      *
+     * The yields made by Iterators report the free space of their buffer (Integer.MAX_VALUE for the ones that grow),
+     * and 0 when closed. Generators can use it to size their batches, or to avoid blocking on a slow consumer.
+     *
      * @return number of items that can be yielded without blocking. default 1, irrespective of the underlying target for the yield.
      */
     default int capacity() {
         return 1;
     }
+
+    /**
+     * yield the value if it can be done without blocking.
+     * A closed yield fails (or not) the same way as yield().
+     *
+     * @return false, without yielding the value, if there is no room for it
+     */
+    default boolean tryYield(T value) {
+        if (capacity() > 0 || isClosed()) {
+            this.yield(value);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * yield the value, waiting at most 'timeout' for room for it. Like BlockingQueue.offer(value, timeout, unit),
+     * a timeout of 0 means not to wait at all.
+     *
+     * default: tries tryYield() again every millisecond until the time is up.
+     *
+     * @return false, without yielding the value, if there was no room for it in time
+     */
+    default boolean yield(T value, long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!tryYield(value)) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0L) {
+                return false;
+            }
+            LockSupport.parkNanos(min(remaining, TimeUnit.MILLISECONDS.toNanos(1)));
+            if (Thread.currentThread().isInterrupted()) {
+                throw new RuntimeException(new InterruptedException("interrupted waiting for room to yield"));
+            }
+        }
+        return true;
+    }
 }
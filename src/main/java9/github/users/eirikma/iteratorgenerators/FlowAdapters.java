@@ -0,0 +1,360 @@
+package github.users.eirikma.iteratorgenerators;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Bridges between the pull model of this library and the push model of java.util.concurrent.Flow (reactive streams):
+ * an iterator as a Flow.Publisher, and a Flow.Subscriber as a Yield. Both only deliver as many values as the subscriber
+ * has requested, so nothing is buffered without bounds in between.
+ *
+ * Flow is java 9+, so this class is built for java 9 from src/main/java9, apart from the rest of the library which
+ * is built for java 8. It can only be used on java 9+.
+ */
+public final class FlowAdapters {
+
+    static final int MAX_BATCH = 256;
+
+    private FlowAdapters() {
+    }
+
+    /**
+     * @see #publisher(Iterator, Executor)
+     */
+    public static <T> Flow.Publisher<T> publisher(Iterator<T> iterator) {
+        return publisher(iterator, BackgroundThreads.defaultExecutor());
+    }
+
+    /**
+     * a publisher of the values of the iterator, for one subscriber (later subscribers get an IllegalStateException).
+     * The values are pulled with nextN() on the executor when the subscriber requests them, up to the number
+     * requested, and at most what the iterator has available after the first. The iterator is closed when it is done,
+     * fails or the subscription is cancelled.
+     */
+    public static <T> Flow.Publisher<T> publisher(Iterator<T> iterator, Executor executor) {
+        checkNotNull(iterator);
+        checkNotNull(executor);
+        IteratorExt<T> source = Iterators.iteratorExt(iterator);
+        AtomicBoolean subscribed = new AtomicBoolean(false);
+        return subscriber -> {
+            checkNotNull(subscriber);
+            if (subscribed.getAndSet(true)) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IllegalStateException("an iterator can only be published to one subscriber"));
+                return;
+            }
+            new IteratorSubscription<>(source, subscriber, executor).start();
+        };
+    }
+
+    /**
+     * a yield handing the values to the subscriber, for a generator (or other code) running in its own thread.
+     * The subscriber's demand is the yield's capacity(): yield() waits until the subscriber has requested more values.
+     * close() completes the subscriber, fail() gives it an error, and after the subscriber cancels, yielding fails.
+     *
+     * The subscriber is subscribed right away, in this thread.
+     */
+    public static <T> SubscriberYield<T> yieldTo(Flow.Subscriber<? super T> subscriber) {
+        checkNotNull(subscriber);
+        SubscriberYield<T> yield = new SubscriberYield<>(subscriber);
+        subscriber.onSubscribe(yield.subscription);
+        return yield;
+    }
+
+    /**
+     * pulls values for the subscriber in a task on the executor. Only one task runs at a time: requests and cancels
+     * made while it runs make it go another round instead of starting a new one.
+     */
+    private static final class IteratorSubscription<T> implements Flow.Subscription, Runnable {
+        private final IteratorExt<T> iterator;
+        private final Flow.Subscriber<? super T> subscriber;
+        private final Executor executor;
+        private final AtomicLong demand = new AtomicLong();
+        // number of times the task has been asked to run, and not yet gone a round for
+        private final AtomicInteger pending = new AtomicInteger(1);
+        // of the array type the iterator's nextN() takes, which may be String[] etc. rather than Object[]
+        private final Object[] buffer;
+        private volatile boolean cancelled = false;
+        private volatile Throwable badRequest;
+        // task only
+        private boolean done = false;
+
+        IteratorSubscription(IteratorExt<T> iterator, Flow.Subscriber<? super T> subscriber, Executor executor) {
+            this.iterator = iterator;
+            this.subscriber = subscriber;
+            this.executor = executor;
+            this.buffer = Iterators.nextNBuffer(iterator, MAX_BATCH);
+        }
+
+        /**
+         * the task is held back until onSubscribe() has returned, so no values are pushed while it runs.
+         */
+        void start() {
+            subscriber.onSubscribe(this);
+            executor.execute(this);
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0L) {
+                badRequest = new IllegalArgumentException("request must be > 0, not: " + n);
+            } else {
+                demand.accumulateAndGet(n, (requested, more) -> requested + more < 0L ? Long.MAX_VALUE : requested + more);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (pending.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int rounds = 1;
+            do {
+                pull();
+                rounds = pending.addAndGet(-rounds);
+            } while (rounds != 0);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void pull() {
+            if (done) {
+                return;
+            }
+            if (cancelled) {
+                finish();
+                return;
+            }
+            try {
+                long requested;
+                while ((requested = demand.get()) > 0L && !cancelled && badRequest == null) {
+                    int n = (int) Math.min(Math.min(requested, buffer.length), Math.max(1, iterator.available()));
+                    int gotten = Iterators.nextN(iterator, (T[]) buffer, 0, n);
+                    if (gotten == 0 && !iterator.hasNext()) {
+                        finish();
+                        subscriber.onComplete();
+                        return;
+                    }
+                    if (requested != Long.MAX_VALUE) {
+                        demand.addAndGet(-gotten);
+                    }
+                    for (int i = 0; i < gotten; i++) {
+                        T value = (T) buffer[i];
+                        buffer[i] = null;
+                        if (!cancelled) {
+                            subscriber.onNext(value);
+                        }
+                    }
+                }
+                if (badRequest != null) {
+                    finish();
+                    subscriber.onError(badRequest);
+                } else if (cancelled) {
+                    finish();
+                }
+            } catch (Throwable e) {
+                finish();
+                subscriber.onError(e);
+            }
+        }
+
+        private void finish() {
+            done = true;
+            Arrays.fill(buffer, null);
+            try {
+                iterator.close();
+            } catch (IOException | RuntimeException e) {
+                // nobody to tell: the subscriber is done or gone
+            }
+        }
+    }
+
+    /**
+     * see yieldTo(). To be used from one thread.
+     */
+    public static final class SubscriberYield<T> implements Yield<T> {
+        private final Flow.Subscriber<? super T> subscriber;
+        private final Object lock = new Object();
+        // guarded by lock
+        private long demand = 0L;
+        private boolean cancelled = false;
+        private Throwable badRequest;
+        private boolean done = false;
+        // producer thread only
+        private long count = 0L;
+
+        final Flow.Subscription subscription = new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                synchronized (lock) {
+                    if (n <= 0L) {
+                        badRequest = new IllegalArgumentException("request must be > 0, not: " + n);
+                    } else {
+                        demand = demand + n < 0L ? Long.MAX_VALUE : demand + n;
+                    }
+                    lock.notifyAll();
+                }
+            }
+
+            @Override
+            public void cancel() {
+                synchronized (lock) {
+                    cancelled = true;
+                    lock.notifyAll();
+                }
+            }
+        };
+
+        private SubscriberYield(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        /**
+         * waits until the subscriber has requested more values.
+         */
+        @Override
+        public void yield(T value) {
+            awaitDemand(0L, false);
+            push(value);
+        }
+
+        @Override
+        public boolean tryYield(T value) {
+            return this.yield(value, 0L, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public boolean yield(T value, long timeout, TimeUnit unit) {
+            if (!awaitDemand(unit.toNanos(timeout), true)) {
+                return false;
+            }
+            push(value);
+            return true;
+        }
+
+        private void push(T value) {
+            count++;
+            subscriber.onNext(value);
+        }
+
+        /**
+         * wait for demand, at most 'nanos' if 'timed', and take one from it.
+         *
+         * @return false if the time ran out
+         */
+        private boolean awaitDemand(long nanos, boolean timed) {
+            Throwable error;
+            synchronized (lock) {
+                long deadline = System.nanoTime() + nanos;
+                try {
+                    while (demand == 0L && !cancelled && badRequest == null && !done) {
+                        if (!timed) {
+                            lock.wait();
+                        } else {
+                            long remaining = deadline - System.nanoTime();
+                            if (remaining <= 0L) {
+                                return false;
+                            }
+                            TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+                if (cancelled || done) {
+                    throw new RuntimeException("closed");
+                }
+                error = badRequest;
+                if (error == null) {
+                    if (demand != Long.MAX_VALUE) {
+                        demand--;
+                    }
+                    return true;
+                }
+            }
+            fail(error);
+            throw new RuntimeException(error);
+        }
+
+        @Override
+        public long count() {
+            return count;
+        }
+
+        /**
+         * the number of values the subscriber has requested and not yet got.
+         */
+        @Override
+        public int capacity() {
+            synchronized (lock) {
+                return cancelled || done || badRequest != null ? 0 : (int) Math.min(Integer.MAX_VALUE, demand);
+            }
+        }
+
+        @Override
+        public boolean isClosed() {
+            synchronized (lock) {
+                return cancelled || done;
+            }
+        }
+
+        /**
+         * complete the subscriber, unless it has cancelled.
+         */
+        @Override
+        public void close() throws IOException {
+            if (finish()) {
+                subscriber.onComplete();
+            }
+        }
+
+        /**
+         * give the subscriber an error, unless it has cancelled or the yield is closed.
+         */
+        public void fail(Throwable error) {
+            if (finish()) {
+                subscriber.onError(error);
+            }
+        }
+
+        /**
+         * @return true if the subscriber is still to be told
+         */
+        private boolean finish() {
+            synchronized (lock) {
+                if (done) {
+                    return false;
+                }
+                done = true;
+                return !cancelled;
+            }
+        }
+    }
+}
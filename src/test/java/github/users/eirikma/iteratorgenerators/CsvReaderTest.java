@@ -0,0 +1,257 @@
+package github.users.eirikma.iteratorgenerators;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class CsvReaderTest {
+
+    private static InputStream csv(String contents) {
+        return new ByteArrayInputStream(contents.getBytes(Charset.defaultCharset()));
+    }
+
+    @Test
+    public void readCsvInputShouldMapFieldsByHeaderNames() {
+        List<Map<String, String>> rows = CsvReader.readCsvInput(csv("id;name;city\n1;Ola;Oslo\n2;Kari;Bergen;extra;more\n3;Per\n"));
+
+        assertThat(rows.size(), is(3));
+        assertThat(rows.get(0).get("id"), is("1"));
+        assertThat(rows.get(0).get("name"), is("Ola"));
+        assertThat(rows.get(0).get("city"), is("Oslo"));
+        assertThat(rows.get(1).get("___REMAINING___"), is("extra;more;"));
+        assertThat(rows.get(2).get("name"), is("Per"));
+        assertThat(rows.get(2).get("city"), nullValue());
+    }
+
+    @Test
+    public void iterateShouldReadRowByRowAndCloseInputWhenDone() throws Exception {
+        final boolean[] closed = {false};
+        InputStream input = new ByteArrayInputStream("a,b\n1,2\n3,4\n".getBytes(Charset.defaultCharset())) {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+            }
+        };
+        IteratorExt<Map<String, String>> rows = CsvReader.iterate(input);
+
+        assertThat(rows.next().get("b"), is("2"));
+        assertThat(closed[0], is(false));
+        assertThat(rows.next().get("a"), is("3"));
+        assertThat(rows.hasNext(), is(false));
+        assertThat(closed[0], is(true));
+    }
+
+    @Test
+    public void closingIteratorShouldCloseInput() throws Exception {
+        final boolean[] closed = {false};
+        InputStream input = new ByteArrayInputStream("a\tb\n1\t2\n3\t4\n".getBytes(Charset.defaultCharset())) {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+            }
+        };
+        IteratorExt<Map<String, String>> rows = CsvReader.iterate(input);
+        assertThat(rows.next().get("b"), is("2"));
+        rows.close();
+        assertThat(closed[0], is(true));
+        assertThat(rows.hasNext(), is(false));
+    }
+
+    @Test
+    public void iterateShouldHandleQuotedFieldsAndLineEndings() {
+        List<Map<String, String>> rows = CsvReader.readCsvInput(csv(
+                "id,\"name, full\",note\r\n"
+                        + "1,\"Ola \"\"O\"\" Nordmann\",\"two\nlines\"\r\n"
+                        + "2,Kari,\r\n"
+                        + "\n"
+                        + "3,x\"y,z"));
+
+        assertThat(rows.size(), is(4));
+        assertThat(rows.get(0).get("name, full"), is("Ola \"O\" Nordmann"));
+        assertThat(rows.get(0).get("note"), is("two\nlines"));
+        assertThat(rows.get(1).get("name, full"), is("Kari"));
+        assertThat(rows.get(1).get("note"), nullValue());
+        assertThat(rows.get(2).get("id"), is(""));
+        assertThat(rows.get(3).get("name, full"), is("x\"y"));
+        assertThat(rows.get(3).get("note"), is("z"));
+    }
+
+    @Test
+    public void tokenizerShouldReadRecordsLongerThanItsBuffer() throws IOException {
+        StringBuilder longField = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            longField.append("abc,def;");
+        }
+        CsvTokenizer tokenizer = new CsvTokenizer(new StringReader("a;\"" + longField + "\";b\rc;d"), 16);
+        tokenizer.setSeparator(tokenizer.detectSeparator(new char[]{',', ';'}));
+        List<String> fields = new ArrayList<>();
+
+        assertThat(tokenizer.readRecord(fields), is(true));
+        assertThat(fields.size(), is(3));
+        assertThat(fields.get(1), is(longField.toString()));
+        assertThat(tokenizer.readRecord(fields), is(true));
+        assertThat(fields.get(1), is("d"));
+        assertThat(tokenizer.readRecord(fields), is(false));
+    }
+
+    @Test
+    public void iterateMappedShouldDecodeOnlyTheFieldsThatAreRead() throws IOException {
+        Path file = Files.createTempFile("csvreadertest", ".csv");
+        try {
+            Files.write(file, "id;name;note\r\n1;\"Ola \"\"O\"\"\";x\r\n2;Kari;\n3;Per;y;extra".getBytes(StandardCharsets.UTF_8));
+            IteratorExt<MappedCsvRow> rows = CsvReader.iterateMapped(file, StandardCharsets.UTF_8);
+
+            MappedCsvRow row = rows.next();
+            assertThat(row.getFieldNames(), is(Arrays.asList("id", "name", "note")));
+            assertThat(row.get("name"), is("Ola \"O\""));
+            assertThat(rows.next().get(1), is("Kari"));
+            assertThat(row.size(), is(2));
+            assertThat(row.get("note"), nullValue());
+            Map<String, String> last = rows.next().toRow();
+            assertThat(last.get("note"), is("y"));
+            assertThat(last.get("___REMAINING___"), is("extra;"));
+            assertThat(rows.hasNext(), is(false));
+            assertThat(rows.isClosed(), is(true));
+
+            assertThat(Iterators.stream(CsvReader.iterateMapped(file, StandardCharsets.UTF_8)).count(), is(3L));
+
+            // the row instance is reused, so a parallel stream must not buffer rows for other threads
+            StringBuilder csv = new StringBuilder("id\n");
+            List<String> ids = new ArrayList<>();
+            for (int i = 0; i < 5000; i++) {
+                csv.append(i).append('\n');
+                ids.add(Integer.toString(i));
+            }
+            Files.write(file, csv.toString().getBytes(StandardCharsets.UTF_8));
+            assertThat(Iterators.parallelStream(CsvReader.iterateMapped(file, StandardCharsets.UTF_8))
+                    .map(mapped -> mapped.get("id")).collect(Collectors.toList()), is(ids));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void mappedTokenizerShouldMapAgainWhenRecordsCrossTheWindow() throws IOException {
+        Path file = Files.createTempFile("csvreadertest", ".csv");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            StringBuilder csv = new StringBuilder("a,b\n");
+            for (int i = 0; i < 100; i++) {
+                csv.append(i).append(",\"value\nnumber ").append(i).append("\"\n");
+            }
+            channel.write(ByteBuffer.wrap(csv.toString().getBytes(StandardCharsets.UTF_8)));
+            MappedCsvTokenizer tokenizer = new MappedCsvTokenizer(channel, 0L, Long.MAX_VALUE, 8, false);
+            MappedCsvRow row = new MappedCsvRow(new CsvSchema(Collections.<String>emptyList(), ','), StandardCharsets.UTF_8);
+
+            assertThat(tokenizer.readRecord(row), is(true));
+            for (int i = 0; i < 100; i++) {
+                assertThat(tokenizer.readRecord(row), is(true));
+                assertThat(row.get(0), is("" + i));
+                assertThat(row.get(1), is("value\nnumber " + i));
+            }
+            assertThat(tokenizer.readRecord(row), is(false));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void iterateParallelShouldGiveTheSameRowsAsIterate() throws IOException {
+        Path file = Files.createTempFile("csvreadertest", ".csv");
+        try {
+            StringBuilder csv = new StringBuilder("id,text,more\r\n");
+            for (int i = 0; i < 500; i++) {
+                csv.append(i).append(i % 3 == 0 ? ",\"quoted, \"\"with\"\"\nline break\"" : ",plain").append(i % 5 == 0 ? "\n" : ",x\r\n");
+            }
+            Files.write(file, csv.toString().getBytes(StandardCharsets.UTF_8));
+            List<Map<String, String>> expected = CsvReader.readCsvInput(csv(csv.toString()));
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            try {
+                for (int chunkSize : new int[]{7, 100, 1 << 20}) {
+                    List<Map<String, String>> ordered = new ArrayList<>();
+                    CsvReader.iterateParallel(file, StandardCharsets.UTF_8, 3, true, chunkSize, executor).forEach(ordered::add);
+                    assertThat("chunk size " + chunkSize, ordered, is(expected));
+
+                    List<Map<String, String>> unordered = new ArrayList<>();
+                    CsvReader.iterateParallel(file, StandardCharsets.UTF_8, 3, false, chunkSize, executor).forEach(unordered::add);
+                    assertThat(new HashSet<>(unordered), is(new HashSet<>(expected)));
+                    assertThat(unordered.size(), is(500));
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void rowsShouldShareTheSchemaAndWorkAsMaps() {
+        List<CsvRow> rows = new ArrayList<>();
+        CsvReader.iterateRows(csv("id;price;name;name\n-17;2.5;a;b\n42;x\n")).forEach(rows::add);
+
+        CsvRow row = rows.get(0);
+        assertThat(rows.get(1).getSchema() == row.getSchema(), is(true));
+        assertThat(row.get(0), is("-17"));
+        assertThat(row.getInt("id"), is(-17));
+        assertThat(row.getLong(0), is(-17L));
+        assertThat(row.getDouble("price"), is(2.5));
+        assertThat(row.get("name"), is("b"));
+        Map<String, String> expected = new HashMap<>();
+        expected.put("id", "-17");
+        expected.put("price", "2.5");
+        expected.put("name", "b");
+        assertThat(row, is(expected));
+        assertThat(expected, is((Map<String, String>) row));
+        assertThat(row.hashCode(), is(expected.hashCode()));
+        assertThat(rows.get(1).size(), is(2));
+        assertThat(rows.get(1).get(2), nullValue());
+        assertThat(rows.get(1).containsKey("name"), is(false));
+    }
+
+    @Test
+    public void mappedRowShouldParseNumbersFromTheBytes() throws IOException {
+        Path file = Files.createTempFile("csvreadertest", ".csv");
+        try {
+            Files.write(file, "a,b,c,d\n-123,9223372036854775807,\"7\",1e3\n".getBytes(StandardCharsets.UTF_8));
+            MappedCsvRow row = CsvReader.iterateMapped(file, StandardCharsets.UTF_8).next();
+
+            assertThat(row.getInt("a"), is(-123));
+            assertThat(row.getLong(1), is(Long.MAX_VALUE));
+            assertThat(row.getInt("c"), is(7));
+            assertThat(row.getDouble(3), is(1000.0));
+            try {
+                row.getInt(1);
+                fail("expected NumberFormatException");
+            } catch (NumberFormatException e) {
+                // too large for an int
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package github.users.eirikma.iteratorgenerators;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * DoubleIterators is a copy of IntIterators, tested there: these only check that the copy works.
+ */
+public class DoubleIteratorsTest {
+
+    @Test
+    public void generatorShouldYieldDoublesInOrder() {
+        double[] counter = {0.0};
+        DoubleIteratorExt iterator = DoubleIterators.generator(yield -> {
+            for (int i = 0; i < 7 && counter[0] < 100.0; i++) {
+                yield.yield(counter[0]++);
+            }
+        });
+
+        double[] buffer = new double[40];
+        assertThat(iterator.nextDouble(), is(0.0));
+        assertThat(iterator.nextN(buffer, 5, 30), is(30));
+        assertThat(buffer[34], is(30.0));
+        assertThat(DoubleIterators.stream(iterator).sum(), is(69.0 * (31.0 + 99.0) / 2));
+    }
+
+    @Test
+    public void backgroundShouldHandOverDoublesInOrder() {
+        double[] counter = {0.0};
+        DoubleIteratorExt iterator = DoubleIterators.background(yield -> {
+            for (int i = 0; i < 3 && counter[0] < 5000.0; i++) {
+                yield.yield(counter[0]++);
+            }
+        });
+
+        assertThat(iterator.hasNext(), is(true));
+        assertThat(iterator.available() > 0, is(true));
+        double expected = 0.0;
+        while (iterator.hasNext()) {
+            assertThat(iterator.nextDouble(), is(expected++));
+        }
+        assertThat(expected, is(5000.0));
+    }
+}
@@ -0,0 +1,100 @@
+package github.users.eirikma.iteratorgenerators;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+public class IntIteratorsTest {
+
+    @Test
+    public void generatorShouldYieldIntsInOrderAndFillBuffersWithNextN() {
+        int[] counter = {0};
+        IntIteratorExt iterator = IntIterators.generator(yield -> {
+            for (int i = 0; i < 7 && counter[0] < 100; i++) {
+                yield.yield(counter[0]++);
+            }
+        });
+
+        int[] buffer = new int[40];
+        assertThat(iterator.nextInt(), is(0));
+        assertThat(iterator.nextN(buffer, 5, 30), is(30));
+        assertThat(buffer[5], is(1));
+        assertThat(buffer[34], is(30));
+        assertThat(IntIterators.stream(iterator).sum(), is((31 + 99) * 69 / 2));
+        assertThat(iterator.hasNext(), is(false));
+    }
+
+    @Test
+    public void batchesFlattenAndZipShouldKeepValuesUnboxed() {
+        List<int[]> batches = new ArrayList<>();
+        IntIterators.batchesOf(4, IntIterators.values(1, 2, 3, 4, 5, 6)).forEach(batches::add);
+        assertThat(batches.size(), is(2));
+        assertArrayEquals(new int[]{5, 6}, batches.get(1));
+
+        IntIteratorExt flat = IntIterators.flatten(batches.stream().map(IntIterators::values).iterator());
+        IntIteratorExt sums = IntIterators.zip(flat, IntIterators.values(10, 20, 30), Integer::sum);
+        assertArrayEquals(new int[]{11, 22, 33}, IntIterators.stream(sums).toArray());
+
+        LongIteratorExt longs = LongIterators.zip(LongIterators.values(1L << 40, 2L), LongIterators.values(1L, 2L), Long::sum);
+        assertThat(longs.nextLong(), is((1L << 40) + 1));
+        assertThat(DoubleIterators.stream(DoubleIterators.values(0.5, 1.5)).sum(), is(2.0));
+    }
+
+    @Test
+    public void backgroundShouldHandOverIntsInChunksInOrder() {
+        int total = PrimitiveBackground.CHUNK_SIZE * PrimitiveBackground.BACKGROUND_CHUNKS * 3 + 17;
+        int[] counter = {0};
+        IntIteratorExt iterator = IntIterators.background(yield -> {
+            for (int i = 0; i < 1000 && counter[0] < total; i++) {
+                yield.yield(counter[0]++);
+            }
+        });
+
+        int[] buffer = new int[3000];
+        int expected = 0;
+        while (iterator.hasNext()) {
+            int n = iterator.nextN(buffer, 0, buffer.length);
+            for (int i = 0; i < n; i++) {
+                assertThat(buffer[i], is(expected++));
+            }
+            if (iterator.hasNext()) {
+                assertThat(iterator.nextInt(), is(expected++));
+            }
+        }
+        assertThat(expected, is(total));
+    }
+
+    @Test
+    public void backgroundShouldHandOverTheValuesOfEachGeneratorCall() throws Exception {
+        // three values, and then the generator stalls until they have arrived (or 5 seconds have passed)
+        CountDownLatch received = new CountDownLatch(1);
+        IntIteratorExt iterator = IntIterators.background(yield -> {
+            if (yield.count() == 0) {
+                yield.yieldN(new int[]{1, 2, 3}, 0, 3);
+            } else if (yield.count() == 3) {
+                try {
+                    received.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                yield.yield(4);
+            }
+        });
+
+        long start = System.nanoTime();
+        int[] buffer = new int[10];
+        assertThat(iterator.nextN(buffer, 0, buffer.length), is(3));
+        long waited = System.nanoTime() - start;
+        received.countDown();
+        assertThat(waited < TimeUnit.SECONDS.toNanos(3), is(true));
+        assertThat(iterator.nextInt(), is(4));
+        assertThat(iterator.hasNext(), is(false));
+    }
+}
@@ -3,10 +3,29 @@ package github.users.eirikma.iteratorgenerators;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static github.users.eirikma.iteratorgenerators.Iterators.*;
 import static github.users.eirikma.iteratorgenerators.Maps.entry;
@@ -17,6 +36,7 @@ import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 public class IteratorsTest {
 
@@ -87,6 +107,27 @@ public class IteratorsTest {
 
 
 
+    @Test
+    public void generatorShouldKeepOrderWhenYieldingLargeBatchesPerCall() {
+        final int BATCH = 10000;
+        IteratorExt<Integer> generator = generator(yield -> {
+            if (yield.count() < 3 * BATCH) {
+                for (int i = 0; i < BATCH; i++) {
+                    yield.yield((int) yield.count());
+                }
+            }
+        });
+        Integer[] buffer = new Integer[BATCH + 10];
+        assertThat(generator.next(), is(0));
+        assertThat(generator.nextN(buffer, 10, 5), is(5));
+        assertThat(buffer[10], is(1));
+        assertThat(buffer[14], is(5));
+        assertThat(generator.nextN(buffer, 0, buffer.length), is(buffer.length));
+        assertThat(buffer[0], is(6));
+        assertThat(buffer[buffer.length - 1], is(6 + buffer.length - 1));
+        assertThat(collect(generator).size(), is(3 * BATCH - 6 - buffer.length));
+    }
+
     @Test
     public void testPushbackableShouldCreateIteratorSupportingPushback() throws Exception {
 
@@ -104,6 +145,37 @@ public class IteratorsTest {
         assertThat(collect(pushBackIterator), is(asList("A", "B", "C")));
     }
 
+    @Test
+    public void nextNShouldCopyToOffsetForAllBuiltInIterators() throws Exception {
+        String[] buffer = new String[5];
+        assertThat(values("A", "B", "C").nextN(buffer, 2, 5), is(3));
+        assertArrayEquals(new String[]{null, null, "A", "B", "C"}, buffer);
+
+        buffer = new String[5];
+        PushBackIterator<String> pushBackIterator = pushbackable(values("A", "B", "C"));
+        pushBackIterator.pushback(pushBackIterator.next());
+        assertThat(pushBackIterator.nextN(buffer, 1, 3), is(3));
+        assertArrayEquals(new String[]{null, "A", "B", "C", null}, buffer);
+
+        buffer = new String[5];
+        IteratorExt<String> wrapped = iteratorExt(asList("A", "B").iterator());
+        assertThat(wrapped.nextN(buffer, 3, 5), is(2));
+        assertArrayEquals(new String[]{null, null, null, "A", "B"}, buffer);
+
+        buffer = new String[5];
+        IteratorExt<String> fromBackground = background(yield -> {
+            if (yield.count() == 0) {
+                yield.yieldN(new String[]{"A", "B", "C"}, 1, 2);
+            }
+        });
+        int gotten = 0;
+        while (fromBackground.hasNext()) {
+            gotten += fromBackground.nextN(buffer, gotten, 5 - gotten);
+        }
+        assertThat(gotten, is(2));
+        assertArrayEquals(new String[]{"B", "C", null, null, null}, buffer);
+    }
+
     @Test
     public void testEmptyBackgroundIteratorShouldTerminateImmediately() {
         final IteratorExt<Object> background = background(yield -> {
@@ -145,6 +217,87 @@ public class IteratorsTest {
 
 
 
+    @Test
+    public void backgroundIteratorShouldHandOverValuesWithEveryWaitStrategy() {
+        for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+            IteratorExt<Integer> numbers = background(yield -> {
+                if (yield.count() < 1000) {
+                    yield.yield((int) yield.count());
+                }
+            }, 7, waitStrategy, 10, TimeUnit.SECONDS);
+            int expected = 0;
+            while (numbers.hasNext()) {
+                assertThat(numbers.next(), is(expected++));
+            }
+            assertThat(expected, is(1000));
+        }
+    }
+
+    @Test
+    public void backgroundIteratorShouldKeepOrderThroughSmallBufferWithBulkTransfers() {
+        final int MAX = 200000;
+        IteratorExt<Integer> numbers = background(yield -> {
+            Integer[] batch = new Integer[13];
+            int from = (int) yield.count();
+            int n = Math.min(batch.length, MAX - from);
+            for (int i = 0; i < n; i++) {
+                batch[i] = from + i;
+            }
+            yield.yieldN(batch, 0, n);
+            if (from + n < MAX) {
+                yield.yield(from + n);
+            }
+        }, 5, WaitStrategy.SPIN_THEN_PARK, 10, TimeUnit.SECONDS);
+        Integer[] buffer = new Integer[7];
+        int expected = 0;
+        while (numbers.hasNext()) {
+            if (expected % 2 == 0) {
+                assertThat(numbers.next(), is(expected++));
+            } else {
+                int gotten = numbers.nextN(buffer, 1, 6);
+                for (int i = 0; i < gotten; i++) {
+                    assertThat(buffer[1 + i], is(expected++));
+                }
+            }
+        }
+        assertThat(expected, is(MAX));
+    }
+
+    @Test
+    public void flushShouldHandOverValuesBeforeTheGeneratorReturns() {
+        final Object lock = new Object();
+        final boolean[] consumed = {false};
+        IteratorExt<String> values = background(yield -> {
+            if (yield.count() == 0) {
+                yield.yield("first");
+                yield.flush();
+                synchronized (lock) {
+                    while (!consumed[0]) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+                yield.yield("second");
+            }
+        });
+        assertThat(values.next(), is("first"));
+        synchronized (lock) {
+            consumed[0] = true;
+            lock.notifyAll();
+        }
+        assertThat(values.next(), is("second"));
+        assertThat(values.hasNext(), is(false));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void backgroundIteratorShouldTimeOutWaitingForSlowGenerator() {
+        IteratorExt<Integer> never = background(yield -> delayMs(1000), 10, WaitStrategy.BLOCKING, 20, TimeUnit.MILLISECONDS);
+        never.hasNext();
+    }
+
     @Test
     public void scenarioSimulatingDataMargeAndEnhancementAcrossSeveralDatabasesShouldRunSmooth() throws Exception {
         final long GENERATOR_MAX = 1000;
@@ -176,10 +329,301 @@ public class IteratorsTest {
     }
 
     @Test
-    public void unfinishedBackgroundIteratorShouldNotMakeProgramHangForever() {
-        // todo
+    public void unfinishedBackgroundIteratorShouldNotMakeProgramHangForever() throws Exception {
+        final CountDownLatch generatorStopped = new CountDownLatch(1);
+        IteratorExt<Long> endless = background(yield -> {
+            try {
+                yield.yield(yield.count());
+                yield.flush();
+                Thread.sleep(60000);
+            } catch (InterruptedException e) {
+                generatorStopped.countDown();
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertThat(endless.next(), is(0L));
+        endless.close();
+        assertThat(endless.hasNext(), is(false));
+        assertThat(endless.isClosed(), is(true));
+        assertThat(generatorStopped.await(10, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    public void generatorExceptionShouldSurfaceInConsumerAfterValuesYieldedBeforeIt() {
+        IteratorExt<String> failing = background(yield -> {
+            yield.yield("ok");
+            throw new IllegalStateException("boom");
+        });
+        assertThat(failing.next(), is("ok"));
+        try {
+            failing.hasNext();
+            fail("should have thrown");
+        } catch (RuntimeException e) {
+            assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+        }
     }
 
+    @Test
+    public void backgroundShouldRunOnTheProvidedExecutor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final String[] threadName = new String[1];
+            IteratorExt<String> names = background(values("a", "b"), (input, yield) -> {
+                threadName[0] = Thread.currentThread().getName();
+                if (input.hasNext()) {
+                    yield.yield(input.next());
+                }
+            }, executor);
+            assertThat(collect(names), is(asList("a", "b")));
+            assertThat(threadName[0].startsWith("pool-"), is(true));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+
+    @Test
+    public void parallelMapShouldKeepInputOrderAndUseSeveralThreads() {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        IteratorExt<String> mapped = parallelMap(Iterators.<Integer>generator(yield -> {
+            if (yield.count() < 200) {
+                yield.yield((int) yield.count());
+            }
+        }), i -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            delayMs(1 + i % 3);
+            running.decrementAndGet();
+            return "v" + i;
+        }, 4, 16);
+
+        int expected = 0;
+        for (String value : mapped) {
+            assertThat(value, is("v" + expected++));
+        }
+        assertThat(expected, is(200));
+        assertThat(maxRunning.get() > 1, is(true));
+        assertThat(maxRunning.get() <= 4, is(true));
+    }
+
+    @Test
+    public void parallelMapUnorderedShouldReturnAllResults() {
+        Collection<Integer> squares = collect(parallelMapUnordered(values(1, 2, 3, 4, 5, 6), i -> {
+            delayMs(10 - i);
+            return i * i;
+        }, 3, 4));
+        assertThat(squares.size(), is(6));
+        assertThat(new HashSet<>(squares), is(new HashSet<>(asList(1, 4, 9, 16, 25, 36))));
+    }
+
+    @Test
+    public void parallelMapShouldStartItsWorkersOnlyWhenUsed() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            AtomicInteger started = new AtomicInteger();
+            Executor counting = task -> {
+                started.incrementAndGet();
+                executor.execute(task);
+            };
+            IteratorExt<Integer> unused = parallelMap(values(1, 2, 3), i -> i * 2, 3, 4, counting);
+            unused.close();
+            IteratorExt<Integer> used = parallelMap(values(1, 2, 3), i -> i * 2, 3, 4, counting);
+            assertThat(started.get(), is(0));
+            assertThat(collect(used), is(asList(2, 4, 6)));
+            assertThat(started.get(), is(3));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void parallelMapShouldRethrowExceptionFromFunction() {
+        IteratorExt<Integer> mapped = parallelMap(values(1, 0, 2), i -> 10 / i, 2, 2);
+        assertThat(mapped.next(), is(10));
+        try {
+            mapped.next();
+            fail("should have thrown");
+        } catch (RuntimeException e) {
+            assertThat(e.getCause(), instanceOf(ArithmeticException.class));
+        }
+        assertThat(mapped.hasNext(), is(false));
+    }
+
+    @Test
+    public void parallelProcessShouldProcessEveryInputValueOnce() {
+        IteratorExt<Integer> doubled = parallelProcess(Iterators.<Integer>generator(yield -> {
+            if (yield.count() < 10000) {
+                yield.yield((int) yield.count());
+            }
+        }), () -> (input, yield) -> {
+            if (input.hasNext()) {
+                yield.yield(input.next() * 2);
+            }
+        }, 4);
+        long sum = 0;
+        int count = 0;
+        for (Integer value : doubled) {
+            sum += value;
+            count++;
+        }
+        assertThat(count, is(10000));
+        assertThat(sum, is(2L * (10000L * 9999L / 2)));
+    }
+
+    @Test
+    public void partitionedParallelProcessShouldSendEqualKeysToTheSameProcessor() {
+        // each processor counts the values per key it has seen; with partitioning every key is seen by only one processor
+        IteratorExt<Tuple2<String, Integer>> runningCounts = parallelProcess(Iterators.<String>generator(yield -> {
+            if (yield.count() < 3000) {
+                yield.yield("key-" + (yield.count() % 7));
+            }
+        }), () -> {
+            Map<String, Integer> seen = new java.util.HashMap<>();
+            return (input, yield) -> {
+                if (input.hasNext()) {
+                    String key = input.next();
+                    yield.yield(new Tuple2<>(key, seen.merge(key, 1, Integer::sum)));
+                }
+            };
+        }, 3, key -> key);
+
+        Map<String, Integer> maxPerKey = new java.util.HashMap<>();
+        for (Tuple2<String, Integer> count : runningCounts) {
+            maxPerKey.merge(count.getKey(), count.getValue(), Math::max);
+        }
+        assertThat(maxPerKey.size(), is(7));
+        int total = 0;
+        for (Integer max : maxPerKey.values()) {
+            total += max;
+        }
+        assertThat(total, is(3000));
+    }
+
+    @Test
+    public void partitionedParallelProcessShouldHandOverInputWithoutWaitingForMore() throws Exception {
+        // three values, and then the input stalls until the first output has arrived (or 5 seconds have passed).
+        CountDownLatch firstOutput = new CountDownLatch(1);
+        IteratorExt<String> input = new IteratorExt<String>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                if (index == 3) {
+                    try {
+                        firstOutput.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    index++;
+                }
+                return index < 3;
+            }
+
+            @Override
+            public String next() {
+                return "key-" + index++;
+            }
+
+            @Override
+            public int nextN(String[] buffer, int offset, int count) {
+                int gotten = 0;
+                while (index < 3 && gotten < count) {
+                    buffer[offset + gotten++] = next();
+                }
+                return gotten > 0 || !hasNext() ? gotten : nextN(buffer, offset, count);
+            }
+        };
+        IteratorExt<String> output = parallelProcess(input, () -> (values, yield) -> {
+            if (values.hasNext()) {
+                yield.yield(values.next());
+            }
+        }, 3, key -> key);
+
+        long start = System.nanoTime();
+        output.next();
+        long waited = System.nanoTime() - start;
+        firstOutput.countDown();
+        assertThat(waited < TimeUnit.SECONDS.toNanos(3), is(true));
+        assertThat(output.collect(Collectors.toList()).size(), is(2));
+    }
+
+    @Test
+    public void parallelProcessShouldRethrowProcessorException() {
+        IteratorExt<Integer> failing = parallelProcess(values(1, 2, 3), () -> (input, yield) -> {
+            if (input.hasNext()) {
+                yield.yield(10 / (input.next() - 2));
+            }
+        }, 2);
+        try {
+            collect(failing);
+            fail("should have thrown");
+        } catch (RuntimeException e) {
+            assertThat(e.getCause(), instanceOf(ArithmeticException.class));
+        }
+    }
+
+    @Test
+    public void parallelStreamShouldProcessAllValuesInOrderWhenCollected() {
+        final int MAX = 100000;
+        List<Integer> values = parallelStream(Iterators.<Integer>generator(yield -> {
+            if (yield.count() < MAX) {
+                yield.yield((int) yield.count());
+            }
+        })).map(i -> i * 2).collect(Collectors.toList());
+        assertThat(values.size(), is(MAX));
+        for (int i = 0; i < MAX; i++) {
+            assertThat(values.get(i), is(i * 2));
+        }
+        assertThat(parallelStream(values(1, 2, 3)).mapToInt(i -> i).sum(), is(6));
+        assertThat(parallelStream(values()).count(), is(0L));
+    }
+
+    @Test
+    public void streamShouldReadIteratorsWithTypedNextN() {
+        assertThat(stream(typedStrings(3000)).count(), is(3000L));
+        assertThat(parallelStream(typedStrings(3000)).collect(Collectors.toList()), is(collect(typedStrings(3000))));
+    }
+
+    @Test
+    public void parallelStreamShouldNotSplitReusedInstances() {
+        final int MAX = 10000;
+        AtomicInteger sum = new AtomicInteger();
+        long batches = parallelStream(reusedBatchesOf(10, Iterators.<Integer>generator(yield -> {
+            if (yield.count() < MAX) {
+                yield.yield((int) yield.count());
+            }
+        }))).peek(batch -> batch.forEach(sum::addAndGet)).count();
+        assertThat(batches, is((long) MAX / 10));
+        assertThat(sum.get(), is(MAX * (MAX - 1) / 2));
+    }
+
+    /**
+     * strings "0".."count-1", with nextN() taking String[] like user code may do.
+     */
+    private static IteratorExt<String> typedStrings(int count) {
+        return new IteratorExt<String>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            @Override
+            public String next() {
+                return String.valueOf(next++);
+            }
+
+            @Override
+            public int nextN(String[] buffer, int offset, int n) {
+                int i = 0;
+                while (i < n && offset + i < buffer.length && hasNext()) {
+                    buffer[offset + i++] = next();
+                }
+                return i;
+            }
+        };
+    }
 
     private synchronized void delayMs(int delay_ms) {
         try {
@@ -247,4 +691,424 @@ public class IteratorsTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void batchesOfShouldSplitInputInLists() {
+        List<List<Integer>> batches = batchesOf(2, values(1, 2, 3)).collect(Collectors.toList());
+        assertThat(batches, is(asList(asList(1, 2), asList(3))));
+    }
+
+    @Test
+    public void reusedBatchesShouldBeTheSameInstanceRefilled() {
+        IteratorExt<Batch<Integer>> batches = reusedBatchesOf(2, values(1, 2, 3));
+        Batch<Integer> first = batches.next();
+        assertThat(first, is(asList(1, 2)));
+        Batch<Integer> second = batches.next();
+        assertThat(second == first, is(true));
+        assertThat(second, is(asList(3)));
+        assertThat(batches.hasNext(), is(false));
+    }
+
+    @Test
+    public void batchesShouldWorkWithGenericCallersOfNextN() {
+        assertThat(Iterators.stream(reusedBatchesOf(2, values(1, 2, 3))).count(), is(2L));
+        assertThat(Iterators.stream(pooledBatchesOf(2, 4, values(1, 2, 3))).count(), is(2L));
+
+        assertThat(reusedBatchesOf(4, typedStrings(10)).next(), is(asList("0", "1", "2", "3")));
+        assertThat(pooledBatchesOf(4, 2, typedStrings(10)).next(), is(asList("0", "1", "2", "3")));
+        assertThat(batchesOf(4, typedStrings(10)).next(), is(asList("0", "1", "2", "3")));
+    }
+
+    @Test
+    public void pooledBatchesShouldBeReusedOnlyWhenReleased() {
+        IteratorExt<Batch<Integer>> batches = pooledBatchesOf(2, 4, values(1, 2, 3, 4, 5, 6));
+        Batch<Integer> first = batches.next();
+        Batch<Integer> second = batches.next();
+        assertThat(second == first, is(false));
+        assertThat(first, is(asList(1, 2)));
+        first.release();
+        Batch<Integer> third = batches.next();
+        assertThat(third == first, is(true));
+        assertThat(third, is(asList(5, 6)));
+        assertThat(second, is(asList(3, 4)));
+    }
+
+    @Test
+    public void timedBatchesShouldBeHandedOutBeforeFullWhenInputIsSlow() {
+        AtomicInteger counter = new AtomicInteger();
+        IteratorExt<Integer> slowInput = generator(yield -> {
+            int value = counter.getAndIncrement();
+            if (value < 6) {
+                if (value == 3) {
+                    delayMs(300);
+                }
+                yield.yield(value);
+            }
+        });
+        IteratorExt<List<Integer>> batches = batchesOf(100, 50, TimeUnit.MILLISECONDS, slowInput);
+
+        assertThat(batches.next(), is(asList(0, 1, 2)));
+        assertThat(batches.next(), is(asList(3, 4, 5)));
+        assertThat(batches.hasNext(), is(false));
+    }
+
+    @Test
+    public void timedBatchesShouldCloseTheirInput() throws Exception {
+        IteratorExt<Integer> input = generator(yield -> yield.yield((int) yield.count()));
+        IteratorExt<List<Integer>> batches = batchesOf(10, 50, TimeUnit.MILLISECONDS, input);
+        assertThat(batches.next().isEmpty(), is(false));
+        batches.close();
+        assertThat(input.isClosed(), is(true));
+        assertThat(batches.isClosed(), is(true));
+    }
+
+    @Test
+    public void instrumentedStagesShouldCountValuesOnBothSides() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        AtomicInteger counter = new AtomicInteger();
+        IteratorExt<Integer> numbers = instrumented("numbers", background(instrumented("numbers", yield -> {
+            int value = counter.getAndIncrement();
+            if (value < 1000) {
+                yield.yield(value);
+            }
+        }, metrics)), metrics);
+
+        assertThat(numbers.collect(Collectors.toList()).size(), is(1000));
+        List<StageMetrics> stages = metrics.getStages();
+        assertThat(stages.size(), is(2));
+        for (StageMetrics stage : stages) {
+            assertThat(stage.getName(), is("numbers"));
+            assertThat(stage.getElements(), is(1000L));
+            assertThat(stage.isFinished(), is(true));
+        }
+    }
+
+    @Test
+    public void tryYieldShouldFailWhenThePipeIsFull() throws Exception {
+        for (ObjectPipeUnderTest pipe : asList(
+                new ObjectPipeUnderTest(new SpscObjectPipe<>(2)),
+                new ObjectPipeUnderTest(new MultiThreadedObjectPipe<>(2)))) {
+            assertThat(pipe.yield.capacity(), is(2));
+            assertThat(pipe.yield.tryYield(1), is(true));
+            assertThat(pipe.yield.tryYield(2), is(true));
+            assertThat(pipe.yield.capacity(), is(0));
+            assertThat(pipe.yield.tryYield(3), is(false));
+            assertThat(pipe.yield.yield(3, 10, TimeUnit.MILLISECONDS), is(false));
+            pipe.yield.flush();
+            assertThat(pipe.iterator.next(), is(1));
+            assertThat(pipe.iterator.nextN(new Integer[1], 0, 1), is(1));
+            assertThat(pipe.yield.capacity(), is(2));
+            assertThat(pipe.yield.yield(3, 10, TimeUnit.MILLISECONDS), is(true));
+        }
+    }
+
+    private static class ObjectPipeUnderTest {
+        final Yield<Integer> yield;
+        final IteratorExt<Integer> iterator;
+
+        ObjectPipeUnderTest(SpscObjectPipe<Integer> pipe) {
+            yield = pipe.getYieldTarget();
+            iterator = pipe.getIterator();
+        }
+
+        ObjectPipeUnderTest(MultiThreadedObjectPipe<Integer> pipe) {
+            yield = pipe.getYieldTarget();
+            iterator = pipe.getIterator();
+        }
+    }
+
+    @Test
+    public void flowPublisherShouldDeliverOnlyWhatIsRequested() throws Exception {
+        CopyOnWriteArrayList<Integer> received = new CopyOnWriteArrayList<>();
+        CountDownLatch completed = new CountDownLatch(1);
+        Flow.Subscription[] subscription = new Flow.Subscription[1];
+        FlowAdapters.publisher(values(1, 2, 3, 4, 5)).subscribe(new Flow.Subscriber<Integer>() {
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                subscription[0] = s;
+                s.request(2);
+            }
+
+            @Override
+            public void onNext(Integer item) {
+                received.add(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+                completed.countDown();
+            }
+        });
+        delayMs(100);
+        assertThat(received, is(asList(1, 2)));
+        subscription[0].request(10);
+        assertThat(completed.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(received, is(asList(1, 2, 3, 4, 5)));
+    }
+
+    @Test
+    public void flowPublisherShouldReadIteratorsWithTypedNextN() throws Exception {
+        CopyOnWriteArrayList<String> received = new CopyOnWriteArrayList<>();
+        CountDownLatch completed = new CountDownLatch(1);
+        Throwable[] error = new Throwable[1];
+        FlowAdapters.publisher(typedStrings(3000)).subscribe(new Flow.Subscriber<String>() {
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                s.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(String item) {
+                received.add(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                error[0] = throwable;
+                completed.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                completed.countDown();
+            }
+        });
+        assertThat(completed.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(error[0], is((Throwable) null));
+        assertThat(received, is(collect(typedStrings(3000))));
+    }
+
+    @Test
+    public void yieldToSubscriberShouldHaveTheDemandAsCapacity() throws Exception {
+        List<Integer> received = new CopyOnWriteArrayList<>();
+        boolean[] completed = {false};
+        Flow.Subscription[] subscription = new Flow.Subscription[1];
+        FlowAdapters.SubscriberYield<Integer> yield = FlowAdapters.yieldTo(new Flow.Subscriber<Integer>() {
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                subscription[0] = s;
+            }
+
+            @Override
+            public void onNext(Integer item) {
+                received.add(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+                completed[0] = true;
+            }
+        });
+        assertThat(yield.capacity(), is(0));
+        assertThat(yield.tryYield(1), is(false));
+        subscription[0].request(2);
+        assertThat(yield.capacity(), is(2));
+        yield.yield(1);
+        assertThat(yield.tryYield(2), is(true));
+        assertThat(yield.yield(3, 10, TimeUnit.MILLISECONDS), is(false));
+        yield.close();
+        assertThat(received, is(asList(1, 2)));
+        assertThat(completed[0], is(true));
+    }
+
+    @Test
+    public void fusedStagesShouldPullEachSourceValueOnce() {
+        AtomicInteger pulled = new AtomicInteger();
+        List<Integer> peeked = new CopyOnWriteArrayList<>();
+        IteratorExt<String> result = values(1, 2, 3, 4, 5, 6, 7, 8, 9, 10)
+                .peek(value -> pulled.incrementAndGet())
+                .filter(value -> value % 2 == 0)
+                .map(value -> value * 10)
+                .takeWhile(value -> value < 90)
+                .peek(peeked::add)
+                .limit(3)
+                .map(String::valueOf);
+
+        assertThat(result.collect(Collectors.toList()), is(asList("20", "40", "60")));
+        assertThat(pulled.get(), is(6));
+        assertThat(peeked, is(asList(20, 40, 60)));
+        assertThat(values(1, 2, 3, 4).limit(2).filter(value -> value > 1).collect(Collectors.toList()), is(asList(2)));
+        assertThat(values(1, 2, 3).flatMap(value -> values(value, value)).limit(5).collect(Collectors.toList()),
+                is(asList(1, 1, 2, 2, 3)));
+    }
+
+    @Test
+    public void fusedIsClosedShouldNotPullFromTheSource() {
+        AtomicInteger pulled = new AtomicInteger();
+        IteratorExt<Integer> mapped = values(1, 2).map(value -> pulled.incrementAndGet());
+        assertThat(mapped.isClosed(), is(false));
+        assertThat(pulled.get(), is(0));
+        assertThat(mapped.collect(Collectors.toList()), is(asList(1, 2)));
+        assertThat(mapped.isClosed(), is(true));
+        assertThat(values(1, 2).map(value -> value).limit(0).isClosed(), is(true));
+    }
+
+    @Test
+    public void processBatchesShouldGiveTheProcessorTypedArrays() {
+        IteratorExt<Integer> lengths = processBatches(values("a", "bb", "ccc"), String.class, 2, (input, offset, count, output) -> {
+            Integer[] results = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                results[i] = input[offset + i].length();
+            }
+            output.yieldN(results, 0, count);
+        });
+        assertThat(lengths.collect(Collectors.toList()), is(asList(1, 2, 3)));
+
+        Processor<Integer, Integer> oddTimesTen = (input, output) -> {
+            if (input.hasNext()) {
+                int value = input.next();
+                if (value % 2 == 1) {
+                    output.yield(value * 10);
+                }
+            }
+        };
+        IteratorExt<Integer> processed = processBatches(values(1, 2, 4, 6, 5), Integer.class, 2, asBatchProcessor(oddTimesTen));
+        assertThat(processed.collect(Collectors.toList()), is(asList(10, 50)));
+
+        BatchProcessor<String, Integer> typedLengths = (String[] input, int offset, int count, Yield<Integer> output) -> {
+            for (int i = offset; i < offset + count; i++) {
+                output.yield(input[i].length());
+            }
+        };
+        assertThat(processBatches(typedStrings(20), String.class, 7, typedLengths).collect(Collectors.toList()).size(),
+                is(20));
+    }
+
+    @Test
+    public void mergeSortedShouldMergeInOrderAndKeepEqualValuesInInputOrder() {
+        IteratorExt<String> merged = mergeSorted(String.CASE_INSENSITIVE_ORDER,
+                values("a", "c", "e"), values("B", "C", "f"), values(), values("b", "d"));
+        assertThat(merged.collect(Collectors.toList()), is(asList("a", "B", "b", "c", "C", "d", "e", "f")));
+
+        Random random = new Random(1);
+        List<List<Integer>> inputs = new ArrayList<>();
+        List<Integer> all = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            List<Integer> input = random.ints(random.nextInt(200), 0, 1000).sorted().boxed().collect(Collectors.toList());
+            inputs.add(input);
+            all.addAll(input);
+        }
+        all.sort(null);
+        IteratorExt<Integer> bulk = mergeSorted(Integer::compare,
+                inputs.stream().map(List::iterator).collect(Collectors.toList()), 16);
+        List<Integer> result = new ArrayList<>();
+        Integer[] buffer = new Integer[37];
+        int n;
+        while ((n = bulk.nextN(buffer, 0, buffer.length)) > 0) {
+            result.addAll(asList(buffer).subList(0, n));
+        }
+        assertThat(result, is(all));
+
+        IteratorExt<String> typed = mergeSorted(Comparator.comparingInt(Integer::parseInt),
+                asList(typedStrings(50), typedStrings(30)), 4);
+        List<Integer> numbers = typed.collect(Collectors.toList()).stream().map(Integer::parseInt).collect(Collectors.toList());
+        assertThat(numbers.size(), is(80));
+        assertThat(numbers, is(numbers.stream().sorted().collect(Collectors.toList())));
+    }
+
+    @Test
+    public void sortedShouldSpillRunsToTempFilesAndDeleteThem() throws Exception {
+        Path directory = Files.createTempDirectory("sorted-test");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Random random = new Random(2);
+            List<String> input = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                input.add(Integer.toString(random.nextInt(100000), 36));
+            }
+            List<String> expected = new ArrayList<>(input);
+            expected.sort(null);
+
+            IteratorExt<String> sorted = sorted(input.iterator(), String::compareTo, 64, SpillCodec.strings(),
+                    directory, executor);
+            assertThat(sorted.next(), is(expected.get(0)));
+            assertThat(fileCount(directory) > 1, is(true));
+            List<String> result = new ArrayList<>(asList(expected.get(0)));
+            result.addAll(sorted.collect(Collectors.toList()));
+            assertThat(result, is(expected));
+            assertThat(fileCount(directory), is(0L));
+
+            IteratorExt<String> closed = sorted(input.iterator(), String::compareTo, 64, SpillCodec.strings(),
+                    directory, executor);
+            closed.next();
+            closed.close();
+            assertThat(fileCount(directory), is(0L));
+
+            assertThat(sorted(values("b", "c", "a"), String::compareTo, 64, SpillCodec.strings(), directory, Runnable::run)
+                    .collect(Collectors.toList()), is(asList("a", "b", "c")));
+
+            IteratorExt<String> passes = new ExternalSortIterator<>(iteratorExt(input.iterator()), String::compareTo, 8,
+                    SpillCodec.strings(), directory, Runnable::run, 3);
+            assertThat(passes.collect(Collectors.toList()), is(expected));
+            assertThat(fileCount(directory), is(0L));
+
+            List<String> typed = collect(typedStrings(200)).stream().sorted().collect(Collectors.toList());
+            assertThat(sorted(typedStrings(200), String::compareTo, 64, SpillCodec.strings(), directory, executor)
+                    .collect(Collectors.toList()), is(typed));
+            assertThat(sorted(typedStrings(20), String::compareTo, 64, SpillCodec.strings(), directory, executor)
+                    .collect(Collectors.toList()), is(typed.stream().filter(s -> Integer.parseInt(s) < 20)
+                    .collect(Collectors.toList())));
+            assertThat(fileCount(directory), is(0L));
+        } finally {
+            executor.shutdownNow();
+            Files.delete(directory);
+        }
+    }
+
+    private static long fileCount(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void joinsShouldPairValuesWithEqualKeys() {
+        List<String> people = asList("anna:1", "bob:2", "carl:1", "dina:4");
+        List<String> cities = asList("1:oslo", "2:bergen", "2:bodo", "3:tromso");
+        Function<String, String> personKey = person -> person.split(":")[1];
+        Function<String, String> cityKey = city -> city.split(":")[0];
+
+        assertThat(hashJoin(people.iterator(), cities.iterator(), personKey, cityKey).collect(Collectors.toList()),
+                is(asList(new Tuple2<>("anna:1", "1:oslo"), new Tuple2<>("bob:2", "2:bergen"),
+                        new Tuple2<>("bob:2", "2:bodo"), new Tuple2<>("carl:1", "1:oslo"))));
+        assertThat(hashJoin(people.iterator(), cities.iterator(), personKey, cityKey, JoinType.LEFT_OUTER)
+                        .map(Tuple2::getSecond).collect(Collectors.toList()),
+                is(asList("1:oslo", "2:bergen", "2:bodo", "1:oslo", null)));
+
+        List<String> sortedPeople = asList("anna:1", "carl:1", "bob:2", "dina:4");
+        assertThat(mergeJoin(sortedPeople.iterator(), cities.iterator(), personKey, cityKey, String::compareTo)
+                        .collect(Collectors.toList()),
+                is(asList(new Tuple2<>("anna:1", "1:oslo"), new Tuple2<>("carl:1", "1:oslo"),
+                        new Tuple2<>("bob:2", "2:bergen"), new Tuple2<>("bob:2", "2:bodo"))));
+        assertThat(mergeJoin(sortedPeople.iterator(), cities.iterator(), personKey, cityKey, String::compareTo, JoinType.LEFT_OUTER)
+                        .map(Tuple2::getSecond).collect(Collectors.toList()),
+                is(asList("1:oslo", "1:oslo", "2:bergen", "2:bodo", null)));
+    }
+
+    @Test
+    public void ringBufferShouldKeepItsCapacityWhileItIsUsedAndShrinkWhenItIsNot() {
+        ObjectRingBuffer<Integer> buffer = new ObjectRingBuffer<>(16, 64);
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 1000; i++) {
+                buffer.addLast(i);
+            }
+            while (!buffer.isEmpty()) {
+                buffer.removeFirst();
+            }
+            assertThat(buffer.capacity(), is(1024));
+        }
+        for (int round = 0; round < ObjectRingBuffer.SHRINK_AFTER; round++) {
+            assertThat(buffer.capacity(), is(1024));
+            buffer.addLast(round);
+            buffer.removeFirst();
+        }
+        assertThat(buffer.capacity(), is(16));
+    }
+}
@@ -0,0 +1,46 @@
+package github.users.eirikma.iteratorgenerators;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * LongIterators is a copy of IntIterators, tested there: these only check that the copy works.
+ */
+public class LongIteratorsTest {
+
+    @Test
+    public void generatorShouldYieldLongsInOrder() {
+        long[] counter = {0L};
+        LongIteratorExt iterator = LongIterators.generator(yield -> {
+            for (int i = 0; i < 7 && counter[0] < 100L; i++) {
+                yield.yield(counter[0]++);
+            }
+        });
+
+        long[] buffer = new long[40];
+        assertThat(iterator.nextLong(), is(0L));
+        assertThat(iterator.nextN(buffer, 5, 30), is(30));
+        assertThat(buffer[34], is(30L));
+        assertThat(LongIterators.stream(iterator).sum(), is(69L * (31L + 99L) / 2));
+    }
+
+    @Test
+    public void backgroundShouldHandOverLongsInOrder() {
+        long[] counter = {0L};
+        LongIteratorExt iterator = LongIterators.background(yield -> {
+            for (int i = 0; i < 3 && counter[0] < 5000L; i++) {
+                yield.yield(counter[0]++);
+            }
+        });
+
+        assertThat(iterator.hasNext(), is(true));
+        assertThat(iterator.available() > 0, is(true));
+        long expected = 0L;
+        while (iterator.hasNext()) {
+            assertThat(iterator.nextLong(), is(expected++));
+        }
+        assertThat(expected, is(5000L));
+    }
+}
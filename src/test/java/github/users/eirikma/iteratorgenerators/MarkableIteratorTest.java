@@ -36,4 +36,34 @@ public class MarkableIteratorTest {
         assertThat(markable.next(), is(6));
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void nextNShouldRespectMarkAndContinueAfterReReadItems() throws Exception {
+        MarkableIterator<Integer> markable = Iterators.markable(Iterators.values(1, 2, 3, 4, 5, 6, 7));
+        Integer[] buffer = new Integer[10];
+
+        markable.next();
+        markable.mark(3);
+        assertThat(markable.nextN(buffer, 1, 3), is(3));
+        assertThat(buffer[1], is(2));
+        assertThat(buffer[3], is(4));
+        markable.reset();
+
+        assertThat(markable.nextN(buffer, 0, 10), is(6));
+        assertThat(buffer[0], is(2));
+        assertThat(buffer[5], is(7));
+        assertThat(markable.hasNext(), is(false));
+    }
+
+    @Test
+    public void shouldContinueWithSourceAfterReReadingWithoutNewMark() throws Exception {
+        MarkableIterator<Integer> markable = Iterators.markable(Iterators.values(1, 2, 3));
+        markable.mark(2);
+        markable.next();
+        markable.reset();
+        assertThat(markable.next(), is(1));
+        assertThat(markable.next(), is(2));
+        assertThat(markable.next(), is(3));
+        assertThat(markable.hasNext(), is(false));
+    }
+}